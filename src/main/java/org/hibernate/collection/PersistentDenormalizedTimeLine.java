@@ -18,7 +18,11 @@
  */
 package org.hibernate.collection;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 import org.hibernate.engine.SessionImplementor;
 import org.hibernate.persister.collection.CollectionPersister;
@@ -26,6 +30,8 @@ import org.kowboy.temporal.DenormalizedTimeLine;
 import org.kowboy.temporal.DenormalizedTimeLineImpl;
 import org.kowboy.temporal.TemporalData;
 import org.kowboy.temporal.TemporalDataFactory;
+import org.kowboy.temporal.TemporalProperty;
+import org.kowboy.temporal.TimeLineCursor;
 import org.kowboy.temporal.TimeLineFactory;
 import org.kowboy.temporal.TimePeriod;
 
@@ -50,6 +56,8 @@ public class PersistentDenormalizedTimeLine extends PersistentSet implements Den
 
     @Override
     public void beforeInitialize(CollectionPersister persister, int anticipatedSize) {
+        // No executor: the loaded entities belong to the session, so they
+        // must only be touched on the session's thread.
         this.set = new DenormalizedTimeLineImpl(factory);
     }
 
@@ -63,6 +71,32 @@ public class PersistentDenormalizedTimeLine extends PersistentSet implements Den
 		return ((DenormalizedTimeLine) set).getAsOf(key, asOf);
 	}
 
+	public Map<Object,TemporalData> getAllAsOf(Date asOf) {
+		read();
+		return ((DenormalizedTimeLine) set).getAllAsOf(asOf);
+	}
+
+	public TimeLineCursor cursor(Object key) {
+		read();
+		return ((DenormalizedTimeLine) set).cursor(key);
+	}
+
+	public int getKeyCount() {
+		read();
+		return ((DenormalizedTimeLine) set).getKeyCount();
+	}
+
+	@SuppressWarnings("unchecked")
+	public Iterator<TemporalData> chronologicalIterator() {
+		read();
+		return new IteratorProxy(((DenormalizedTimeLine) set).chronologicalIterator());
+	}
+
+	public Set<Object> getChangedKeys(Date from, Date to) {
+		read();
+		return ((DenormalizedTimeLine) set).getChangedKeys(from, to);
+	}
+
 	public Object getProperty(Object key, String prop, Date asOf) {
 		read();
 		return ((DenormalizedTimeLine) set).getProperty(key, prop, asOf);
@@ -73,4 +107,27 @@ public class PersistentDenormalizedTimeLine extends PersistentSet implements Den
 		write();
 		((DenormalizedTimeLine) set).setProperty(key, prop, period, value, factory);
 	}
+
+	public void setProperties(Object key, Map<String,?> values, TimePeriod period,
+			TemporalDataFactory factory) {
+		write();
+		((DenormalizedTimeLine) set).setProperties(key, values, period, factory);
+	}
+
+	public <D extends TemporalData, V> V get(Object key, TemporalProperty<D,V> property, Date asOf) {
+		read();
+		return ((DenormalizedTimeLine) set).get(key, property, asOf);
+	}
+
+	public <D extends TemporalData, V> void set(Object key, TemporalProperty<D,V> property,
+			TimePeriod period, V value, TemporalDataFactory factory) {
+		write();
+		((DenormalizedTimeLine) set).set(key, property, period, value, factory);
+	}
+
+	public void setPropertyForKeys(Collection<?> keys, String prop, TimePeriod period,
+			Object value, TemporalDataFactory factory) {
+		write();
+		((DenormalizedTimeLine) set).setPropertyForKeys(keys, prop, period, value, factory);
+	}
 }
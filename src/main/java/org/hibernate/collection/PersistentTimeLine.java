@@ -19,21 +19,42 @@
 package org.hibernate.collection;
 
 import java.util.Date;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
+import org.hibernate.Session;
+import org.hibernate.engine.CollectionEntry;
 import org.hibernate.engine.SessionImplementor;
 import org.hibernate.persister.collection.CollectionPersister;
+import org.kowboy.temporal.PropertyHistory;
 import org.kowboy.temporal.TemporalData;
 import org.kowboy.temporal.TemporalDataFactory;
+import org.kowboy.temporal.TemporalProperty;
 import org.kowboy.temporal.TimeLine;
+import org.kowboy.temporal.TimeLineCursor;
 import org.kowboy.temporal.TimeLineFactory;
 import org.kowboy.temporal.TimePeriod;
+import org.kowboy.temporal.Utils;
 
 
 /**
- * Base class for persistent TimeLine implementations.
+ * Base class for persistent TimeLine implementations.<p>
+ *
+ * When the collection is mapped with <tt>lazy="extra"</tt> and has not been
+ * initialized, <tt>getAsOf</tt>, <tt>getProperty</tt>, <tt>get</tt> and
+ * <tt>getLatestEffectiveDate</tt> are answered by a collection filter, which
+ * selects only the record in effect (or the latest start date) instead of
+ * loading the whole history. The elements must map their period as a
+ * <tt>timePeriod</tt> component with <tt>startDate</tt> and
+ * <tt>endDate</tt> properties. Any other operation initializes the
+ * collection, as usual.
  */
 public class PersistentTimeLine extends PersistentSet implements TimeLine {
     private static final long serialVersionUID = 241072427457869264L;
+    private static final String AS_OF_FILTER =
+        "where this.timePeriod.startDate <= :asOf and this.timePeriod.endDate >= :asOf";
+    private static final String LATEST_START_FILTER =
+        "select max(this.timePeriod.startDate)";
     TimeLineFactory factory;
     
     public PersistentTimeLine() {
@@ -61,21 +82,67 @@ public class PersistentTimeLine extends PersistentSet implements TimeLine {
 	}
 
 	public TemporalData getAsOf(Date asOf) {
+		if (isExtraLazy()) {
+			return queryAsOf(asOf);
+		}
 		read();
 		return ((TimeLine) set).getAsOf(asOf);
 	}
 
+	public TemporalData[] getAsOfAll(Date[] asOf) {
+		read();
+		return ((TimeLine) set).getAsOfAll(asOf);
+	}
+
+	public TemporalData getBefore(Date date) {
+		read();
+		return ((TimeLine) set).getBefore(date);
+	}
+
+	public TemporalData getAfter(Date date) {
+		read();
+		return ((TimeLine) set).getAfter(date);
+	}
+
+	public TemporalData getFirst() {
+		read();
+		return ((TimeLine) set).getFirst();
+	}
+
+	public TemporalData getLast() {
+		read();
+		return ((TimeLine) set).getLast();
+	}
+
+	public TimeLineCursor cursor() {
+		read();
+		return ((TimeLine) set).cursor();
+	}
+
 	public TimeLine getEffectiveSubset(TimePeriod timePeriod) {
 		read();
 		return ((TimeLine) set).getEffectiveSubset(timePeriod);
 	}
 
 	public Date getLatestEffectiveDate() {
+		if (isExtraLazy()) {
+			Date latest = (Date) ((Session) getSession())
+					.createFilter(this, LATEST_START_FILTER)
+					.uniqueResult();
+			if (latest == null) {
+				throw new NoSuchElementException();
+			}
+			return Utils.fromEpochDay(Utils.toEpochDay(latest));
+		}
 		read();
 		return ((TimeLine) set).getLatestEffectiveDate();
 	}
 
 	public Object getProperty(String prop, Date asOf) {
+		if (isExtraLazy()) {
+			TemporalData d = queryAsOf(asOf);
+			return d == null ? null : TemporalProperty.getValue(d, prop);
+		}
 		read();
 		return ((TimeLine) set).getProperty(prop, asOf);
 	}
@@ -90,4 +157,64 @@ public class PersistentTimeLine extends PersistentSet implements TimeLine {
 		write();
 		((TimeLine) set).setProperty(prop, period, value, factory);
 	}
+
+	public void setProperties(Map<String,?> values, TimePeriod period,
+			TemporalDataFactory factory) {
+		write();
+		((TimeLine) set).setProperties(values, period, factory);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <D extends TemporalData, V> V get(TemporalProperty<D,V> property, Date asOf) {
+		if (isExtraLazy()) {
+			TemporalData d = queryAsOf(asOf);
+			return d == null ? null : property.get((D) d);
+		}
+		read();
+		return ((TimeLine) set).get(property, asOf);
+	}
+
+	public <D extends TemporalData, V> void set(TemporalProperty<D,V> property, TimePeriod period,
+			V value, TemporalDataFactory factory) {
+		write();
+		((TimeLine) set).set(property, period, value, factory);
+	}
+
+	public PropertyHistory getPropertyHistory(String prop) {
+		read();
+		return ((TimeLine) set).getPropertyHistory(prop);
+	}
+
+	/**
+	 * Tells whether a point query can be answered from the database without
+	 * initializing the collection: it is not initialized, has no queued
+	 * operations, belongs to an open session and is mapped extra lazy. In any
+	 * other case the caller reads the collection, which also reports a
+	 * detached collection the usual way.
+	 */
+	private boolean isExtraLazy() {
+		if (wasInitialized() || hasQueuedOperations()) {
+			return false;
+		}
+		SessionImplementor session = getSession();
+		if (!(session instanceof Session) || !session.isOpen() || !session.isConnected()) {
+			return false;
+		}
+		CollectionEntry entry = session.getPersistenceContext().getCollectionEntry(this);
+		return entry != null && entry.getLoadedPersister() != null
+				&& entry.getLoadedPersister().isExtraLazy();
+	}
+
+	/**
+	 * Selects the record in effect on a date. Dates are compared by day, as
+	 * <tt>TimePeriod.contains</tt> does, and a null date means the end of
+	 * time.
+	 */
+	private TemporalData queryAsOf(Date asOf) {
+		Date day = asOf == null ? TimePeriod.END_OF_TIME : Utils.fromEpochDay(Utils.toEpochDay(asOf));
+		return (TemporalData) ((Session) getSession())
+				.createFilter(this, AS_OF_FILTER)
+				.setTimestamp("asOf", day)
+				.uniqueResult();
+	}
 }
@@ -82,7 +82,7 @@ implements TemporalData, Cloneable, Serializable {
      * @return The hash code for this temporal data.
      */
     public int hashCode() {
-        return getTimePeriod().getStartDate().hashCode()
+        return getTimePeriod().getStartDay()
             * getTimeLineKey().hashCode() % Integer.MAX_VALUE;
     }
 
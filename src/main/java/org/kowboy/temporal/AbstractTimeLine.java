@@ -19,20 +19,17 @@
 package org.kowboy.temporal;
 
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
-
-import org.apache.commons.beanutils.PropertyUtils;
+import java.util.NavigableSet;
 
 /**
  * <p>Abstract base class for <tt>TimeLine</tt> implementations. The easiest
@@ -50,15 +47,47 @@ extends AbstractCollection
 implements TimeLine, Serializable {
 
 	private static final long serialVersionUID = 878619480037627257L;
-	protected SortedSet<TemporalData> set;
+	protected NavigableSet<TemporalData> set;
+
+    /**
+     * Database ids of removed records, by logical key, kept for reuse by
+     * records added later. This is only allocated once an id is saved, so
+     * it may be null.
+     */
     protected transient Map<Object,Object> reusableIds;
+    
+    /**
+     * Counts changes to the set, so cursors and cached property histories
+     * can tell when they are out of date. Subclasses that add to the set 
+     * directly, rather than through <tt>addData</tt>, or change records in
+     * place, should increment it.
+     */
+    protected transient int modCount;
+    
+    // Property histories by property name, valid while modCount is unchanged.
+    private transient Map<String,PropertyHistory> histories;
+    private transient int historiesModCount;
+    
+    // Set once the timeline is read by several threads; see share().
+    private boolean shared;
 
     /**
-     * Default Constructor to call super default Constructor
+     * Default Constructor to call super default Constructor. The records
+     * are kept in a small array until the timeline grows past
+     * <tt>CompactTimeLineSet.MAX_COMPACT</tt> records.
      */
     public AbstractTimeLine() {
-        this.set = new TreeSet<TemporalData>(new StartDateComparator());
-        this.reusableIds = new HashMap<Object,Object>();
+        this.set = new CompactTimeLineSet();
+    }
+
+    /**
+     * Creates a TimeLine backed by the specified sorted set, which must be
+     * ordered by <tt>StartDateComparator</tt>. This is used for subset views.
+     *
+     * @param set The backing set.
+     */
+    protected AbstractTimeLine(NavigableSet<TemporalData> set) {
+        this.set = set;
     }
 
     /**
@@ -78,18 +107,116 @@ implements TimeLine, Serializable {
      *      there is no record for this date.
      */
     public final TemporalData getAsOf(final Date asOf) {
-        // Search for the first record with a startDate before asOf.
-        Iterator iter = iterator();
-        while (iter.hasNext()) {
-            TemporalData data = (TemporalData) iter.next();
-            TimePeriod tp = data.getTimePeriod();
-            if (tp.contains(asOf)) {
-                return data;
-            }
+        return getAsOf(asOf == null ? TimePeriod.END_OF_TIME_DAY : Utils.toEpochDay(asOf));
+    }
+
+    /**
+     * Gets the record effective on the specified epoch day.
+     *
+     * @param day The effective date to search for, as an epoch day.
+     * @return A TemporalData record for the effective date, or null if
+     *      there is no record for this date.
+     */
+    protected final TemporalData getAsOf(final int day) {
+        // The effective record, if any, is the last one starting on or before day.
+        TemporalData floor = set.floor(probe(day));
+        if (floor != null && floor.getTimePeriod().contains(day)) {
+            return floor;
         }
         return null;
     }
 
+    /**
+     * Gets the records effective as of each of the specified dates. This is
+     * done in a single pass when the dates are in ascending order.
+     *
+     * @param asOf The effective dates to search for.
+     * @return An array aligned with <tt>asOf</tt>, holding the effective
+     *      record for each date, or null where there is none.
+     */
+    public TemporalData[] getAsOfAll(final Date[] asOf) {
+        TemporalData[] result = new TemporalData[asOf.length];
+        Cursor cursor = new Cursor();
+        for (int i = 0; i < asOf.length; i++) {
+            result[i] = cursor.getAsOf(asOf[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the last record that ends before the specified date. If there
+     * is a record effective on the date, this is the record preceding it.
+     *
+     * @param date The date to search from.
+     * @return The preceding record, or null if there is none.
+     */
+    public TemporalData getBefore(final Date date) {
+        TemporalData floor = set.floor(probe(date));
+        if (floor != null && floor.getTimePeriod().contains(date)) {
+            return set.lower(floor);
+        }
+        return floor;
+    }
+
+    /**
+     * Gets the first record that starts after the specified date.
+     *
+     * @param date The date to search from.
+     * @return The following record, or null if there is none.
+     */
+    public TemporalData getAfter(final Date date) {
+        return set.higher(probe(date));
+    }
+
+    /**
+     * Gets the earliest record in this TimeLine.
+     *
+     * @return The first record, or null if the timeline is empty.
+     */
+    public TemporalData getFirst() {
+        return set.isEmpty() ? null : set.first();
+    }
+
+    /**
+     * Gets the latest record in this TimeLine.
+     *
+     * @return The last record, or null if the timeline is empty.
+     */
+    public TemporalData getLast() {
+        return set.isEmpty() ? null : set.last();
+    }
+
+    /**
+     * Creates a cursor for as-of lookups over consecutive dates.
+     *
+     * @return A new cursor positioned before the first record.
+     */
+    public TimeLineCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return The number of structural changes made to the set.
+     */
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Prepares this timeline to be read by several threads at once, and no
+     * longer changed. Reads of an ordinary timeline may write to it: a 
+     * descending view moves a compact set to a tree, and property histories
+     * are cached. After this call the set is a tree already and histories
+     * are built on every call, so reads leave the timeline as it is.
+     */
+    void share() {
+        if (set instanceof CompactTimeLineSet) {
+            ((CompactTimeLineSet) set).inflate();
+        }
+        histories = null;
+        shared = true;
+    }
+
     /**
      * Returns an iterator over the elements in this set.  The elements
      * are returned in ascending order.
@@ -111,6 +238,27 @@ implements TimeLine, Serializable {
         return set.size();
     }
 
+    /**
+     * Returns <tt>true</tt> if this timeline contains a record equal to the
+     * specified one. Records in a timeline have unique start dates, so only
+     * the record starting on the same day needs to be compared.
+     *
+     * @param o The record to look for.
+     * @return <tt>true</tt> if an equal record is in this timeline.
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof TemporalData)
+                || ((TemporalData) o).getTimePeriod() == null) {
+            return false;
+        }
+        TemporalData found = set.ceiling((TemporalData) o);
+        return found != null
+            && found.getTimePeriod().getStartDay() 
+                == ((TemporalData) o).getTimePeriod().getStartDay()
+            && o.equals(found);
+    }
+
     /**
      * Returns the comparator used to order this sorted set, or <tt>null</tt>
      * if this tree set uses its elements natural ordering.
@@ -125,40 +273,57 @@ implements TimeLine, Serializable {
     /**
      * Get a TimeLine of records that are effective during the
      * specified time period. This includes records that overlap
-     * the start and end dates of the provided time period.
+     * the start and end dates of the provided time period.<p>
+     * 
+     * The result is a read-only view backed by this TimeLine, so only the
+     * records in the period are visited and nothing is copied.
      *
      * @param timePeriod The range of dates to search for effective records.
      * @return A TimeLine of the effective records for the specified date.
      */
     public final TimeLine getEffectiveSubset(final TimePeriod timePeriod) {
-        TimeLine t = newInstance();
-        Iterator it = this.iterator();
-        while (it.hasNext()) {
-            TemporalData d = (TemporalData) it.next();
-            if (timePeriod.intersects(d.getTimePeriod())) {
-                t.add(d);
-            }
+        if (!timePeriod.isValid()) {
+            return emptySubset(timePeriod);
         }
-        return t;
+        // Start with the record overlapping the start date, if there is one.
+        TemporalData from = set.floor(probe(timePeriod.getStartDay()));
+        if (from == null || !from.getTimePeriod().intersects(timePeriod)) {
+            from = probe(timePeriod.getStartDay());
+        } else {
+            from = probe(from.getTimePeriod().getStartDay());
+        }
+        return new SubTimeLine(this, set.subSet(from, true,
+                probe(timePeriod.getEndDay()), true));
     }
 
     /**
      * Get a TimeLine of records that are completely contained within
-     * the specified time period.
+     * the specified time period.<p>
+     * 
+     * The result is a read-only view backed by this TimeLine, so only the
+     * records in the period are visited and nothing is copied.
      *
      * @param timePeriod The maximum date range of the new TimeLine.
      * @return A new TimeLine.
      */
     public TimeLine getSubset(final TimePeriod timePeriod) {
-        TimeLine t = newInstance();
-        Iterator it = this.iterator();
-        while (it.hasNext()) {
-            TemporalData d = (TemporalData) it.next();
-            if (timePeriod.contains(d.getTimePeriod())) {
-                t.add(d);
-            }
+        if (!timePeriod.isValid()) {
+            return emptySubset(timePeriod);
         }
-        return t;
+        // Only the last record starting in the period can extend past it.
+        TemporalData to = set.floor(probe(timePeriod.getEndDay()));
+        if (to != null && timePeriod.contains(to.getTimePeriod().getStartDay())
+                && !timePeriod.contains(to.getTimePeriod().getEndDay())) {
+            return new SubTimeLine(this, set.subSet(probe(timePeriod.getStartDay()), true,
+                    probe(to.getTimePeriod().getStartDay()), false));
+        }
+        return new SubTimeLine(this, set.subSet(probe(timePeriod.getStartDay()), true,
+                probe(timePeriod.getEndDay()), true));
+    }
+
+    private TimeLine emptySubset(TimePeriod timePeriod) {
+        TemporalData key = probe(timePeriod.getStartDay());
+        return new SubTimeLine(this, set.subSet(key, false, key, false));
     }
 
     /**
@@ -176,86 +341,157 @@ implements TimeLine, Serializable {
             TimePeriod period,
             final Object value,
             final TemporalDataFactory factory) {
-        
-        // Handle splits at start and end of period.        
-        TemporalData effective = getAsOf(period.getStartDate());
-        if (effective != null && effective.getTimePeriod().getStartDate()
-                .before(period.getStartDate())) {
-            TemporalData newData = (TemporalData) effective.cloneData();
-            newData.setTimePeriod(new TimePeriod(period.getStartDate(), 
-                    effective.getTimePeriod().getEndDate()));
-            if (setProperty(newData, prop, value)) {
-                this.add(newData);
-            }
+        setProperties(Collections.singletonMap(prop, value), period, factory);
+    }
+
+    /**
+     * Sets several temporal data properties for the same period. The result
+     * is the same as calling <tt>setProperty</tt> for each entry in the
+     * order of the map, but the timeline is split, swept and merged once.
+     *
+     * @param values the property values, by property name.
+     * @param period the TimePeriod for the properties.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    public void setProperties(final Map<String,?> values,
+            TimePeriod period,
+            final TemporalDataFactory factory) {
+        if (values.isEmpty()) {
+            return;
         }
-        effective = getAsOf(period.getEndDate());
-        if (effective != null && effective.getTimePeriod().getEndDate()
-                .after(period.getEndDate())) {
-            TemporalData newData = (TemporalData) effective.cloneData();
-            newData.setTimePeriod(new TimePeriod(Utils.addDays(period.getEndDate(), 1),
-                    effective.getTimePeriod().getEndDate()));
-            if (setProperty(effective, prop, value)) {
-                this.add(newData);
+        update(new Change() {
+            void apply(TemporalData data) {
+                for (Map.Entry<String,?> entry : values.entrySet()) {
+                    PropertyAccessor.set(data, entry.getKey(), entry.getValue());
+                }
             }
+        }, period, factory);
+    }
+
+    /**
+     * Sets a temporal data property through a typed property handle. If
+     * there is no temporal data record for the specified period, then a new
+     * one will be created using the specified factory.
+     *
+     * @param property the property to set.
+     * @param period the TimePeriod for the property.
+     * @param value the value of the property.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    public <D extends TemporalData, V> void set(final TemporalProperty<D,V> property,
+            TimePeriod period,
+            final V value,
+            final TemporalDataFactory factory) {
+        update(new Change() {
+            void apply(TemporalData data) {
+                property.set((D) data, value);
+            }
+        }, period, factory);
+    }
+
+    /**
+     * Applies a change to every record in a period. Records overlapping
+     * the ends of the period are split first, gaps are filled with new 
+     * records from the factory, and equal neighbours are merged afterwards.
+     *
+     * @param change the change to make to each record.
+     * @param period the TimePeriod to change.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    private void update(Change change, TimePeriod period, TemporalDataFactory factory) {
+        int startDay = period.getStartDay();
+        int endDay = period.getEndDay();
+        
+        // Split the record overlapping the start of the period, so the part
+        // before it keeps its values. If the split turns out to be 
+        // unnecessary, it is merged again below.
+        TemporalData effective = getAsOf(startDay);
+        if (effective != null && effective.getTimePeriod().getStartDay() < startDay) {
+            split(effective, startDay);
         }
         
-        // Set properties on existing records within this period.
-        Iterator<TemporalData> subLine = getSubset(period).iterator();
-        while (subLine.hasNext()) {
-            setProperty(subLine.next(), prop, value);
+        // Sweep the records in the period once, setting the properties and
+        // noting the gaps between them. The set can't change during the
+        // sweep, so the record overlapping the end is split afterwards.
+        List<TimePeriod> gaps = new ArrayList<TimePeriod>();
+        TemporalData last = null;
+        int gapStart = startDay;
+        Iterator<TemporalData> it = tailIterator(probe(startDay), true);
+        while (it.hasNext()) {
+            TemporalData data = it.next();
+            TimePeriod p = data.getTimePeriod();
+            if (p.getStartDay() > endDay) {
+                break;
+            }
+            if (p.getStartDay() > gapStart) {
+                gaps.add(new TimePeriod(gapStart, p.getStartDay() - 1));
+            }
+            if (p.getEndDay() > endDay) {
+                last = data;
+                break;
+            }
+            change.apply(data);
+            gapStart = p.getEndDay() + 1;
+        }
+        if (last != null) {
+            split(last, endDay + 1);
+            change.apply(last);
+        } else if (gapStart <= endDay) {
+            gaps.add(new TimePeriod(gapStart, endDay));
         }
         
-        // Create new records for any gaps within the new period.
-        Iterator<TimePeriod> gaps = getGaps(this, period).iterator();
-        while (gaps.hasNext()) {
+        // Create new records for the gaps within the new period.
+        for (TimePeriod gap : gaps) {
             TemporalData newData = factory.newInstance();
-            setProperty(newData, prop, value);
-            newData.setTimePeriod(gaps.next());
+            change.apply(newData);
+            newData.setTimePeriod(gap);
             this.add(newData);
         }
         
         // Finally, merge similar records.
-        mergeAdjacent();
+        modCount++;
+        mergeAdjacent(startDay, endDay);
     }
         
     public static List getGaps(TimeLine line, TimePeriod period) {
         List gaps = new ArrayList();
-        Date lastGapStart = period.getStartDate();
+        int lastGapStart = period.getStartDay();
         Iterator<TemporalData> iter = line.iterator();
         while (iter.hasNext()) {
             TimePeriod p = iter.next().getTimePeriod();
             if (p.intersects(period)) {
-                TimePeriod gap = new TimePeriod(lastGapStart, Utils.addDays(p.getStartDate(), -1));
+                TimePeriod gap = new TimePeriod(lastGapStart, p.getStartDay() - 1);
                 if (gap.isValid()) {
                     gaps.add(gap);
                 }
-            } else if (p.getStartDate().after(period.getEndDate())) {
+            } else if (p.getStartDay() > period.getEndDay()) {
                 break;
             }
-            if (lastGapStart.before(p.getEndDate())) {
-                lastGapStart = Utils.addDays(p.getEndDate(), 1);
+            if (lastGapStart <= p.getEndDay()) {
+                lastGapStart = p.getEndDay() + 1;
             }
         }
         // gap at the end?
-        TimePeriod gap = new TimePeriod(lastGapStart, period.getEndDate());
+        TimePeriod gap = new TimePeriod(lastGapStart, period.getEndDay());
         if (gap.isValid()) {
             gaps.add(gap);
         }
         return gaps;
     }
 
-    private boolean setProperty(TemporalData data, String prop, Object value) 
-        throws TemporalPropertyException {
-        try {
-            PropertyUtils.setProperty(data, prop, value);
-        } catch (IllegalAccessException e) {
-            throw new TemporalPropertyException("Can not access property " + prop, e);
-        } catch (InvocationTargetException e) {
-            throw new TemporalPropertyException("Can not invoke property setter for " + prop, e);
-        } catch (NoSuchMethodException e) {
-            throw new TemporalPropertyException("No setter method for property " + prop, e);
-        }
-        return true;
+    /**
+     * Splits a record in two on the specified day, which must be after its
+     * start and on or before its end. The second part is a copy of the
+     * record, and both parts keep the record's values.
+     *
+     * @param data The record to split.
+     * @param day The first day of the second part.
+     */
+    private void split(TemporalData data, int day) {
+        TemporalData tail = (TemporalData) data.cloneData();
+        tail.setTimePeriod(new TimePeriod(day, data.getTimePeriod().getEndDay()));
+        data.getTimePeriod().setEndDay(day - 1);
+        addData(tail);
     }
 
     /**
@@ -270,16 +506,49 @@ implements TimeLine, Serializable {
         if (d == null) {
             return null;
         }
+        return PropertyAccessor.get(d, prop);
+    }
 
-        try {
-            return PropertyUtils.getProperty(d, prop);
-        } catch (IllegalAccessException e) {
-            throw new TemporalPropertyException("Can not access property " + prop, e);
-        } catch (InvocationTargetException e) {
-            throw new TemporalPropertyException("Can not invoke property setter for " + prop, e);
-        } catch (NoSuchMethodException e) {
-            throw new TemporalPropertyException("No setter method for property " + prop, e);
+    /**
+     * Gets the value of a temporal property for a specified effective date,
+     * through a typed property handle.
+     *
+     * @param property the property to get.
+     * @param asOf the effective date.
+     * @return the property value at the specified effective date, or null
+     *      if there is no record for that date.
+     */
+    public <D extends TemporalData, V> V get(TemporalProperty<D,V> property, Date asOf) {
+        TemporalData d = getAsOf(asOf);
+        if (d == null) {
+            return null;
+        }
+        return property.get((D) d);
+    }
+    
+    /**
+     * Gets the history of a property as runs of equal values. The history
+     * is cached until the timeline changes. Changes made to records 
+     * directly, rather than through the timeline, are not detected.
+     *
+     * @param prop the name of the property.
+     * @return The history of the property.
+     */
+    public PropertyHistory getPropertyHistory(String prop) {
+        if (shared) {
+            return PropertyHistory.build(set.iterator(), prop);
+        }
+        int currentModCount = getModCount();
+        if (histories == null || historiesModCount != currentModCount) {
+            histories = new HashMap<String,PropertyHistory>();
+            historiesModCount = currentModCount;
         }
+        PropertyHistory history = histories.get(prop);
+        if (history == null) {
+            history = PropertyHistory.build(set.iterator(), prop);
+            histories.put(prop, history);
+        }
+        return history;
     }
     
     /**
@@ -288,7 +557,30 @@ implements TimeLine, Serializable {
      * @return The start date from the last period in the timeline.
      */
     public Date getLatestEffectiveDate() {
-        return ((TreeSet<TemporalData>) set).last().getTimePeriod().getStartDate();
+        return set.last().getTimePeriod().getStartDate();
+    }
+
+    /**
+     * Creates a search key for the underlying set. Only the start date of
+     * the probe is meaningful, since the set is ordered by
+     * <tt>StartDateComparator</tt>. A null date is treated as the end of
+     * time, consistent with <tt>TimePeriod.contains(Date)</tt>.
+     *
+     * @param date The start date to search for.
+     * @return A TemporalData object suitable for navigating the set.
+     */
+    protected static TemporalData probe(Date date) {
+        return probe(date == null ? TimePeriod.END_OF_TIME_DAY : Utils.toEpochDay(date));
+    }
+
+    /**
+     * Creates a search key for the underlying set.
+     *
+     * @param day The start date to search for, as an epoch day.
+     * @return A TemporalData object suitable for navigating the set.
+     */
+    protected static TemporalData probe(int day) {
+        return new Probe(day);
     }
 
     /**
@@ -301,6 +593,9 @@ implements TimeLine, Serializable {
     
     protected boolean addData(TemporalData data) {
         boolean added = set.add(data);
+        if (added) {
+            modCount++;
+        }
         // Should we try to reuse a database id?
         if (added && data.getIdentity() == null) {
             assignId(data);
@@ -309,12 +604,46 @@ implements TimeLine, Serializable {
     }
     
     protected void assignId(TemporalData data) {
+        if (reusableIds == null) {
+            return;
+        }
         Object key = data.getLogicalKey();
         if (reusableIds.containsKey(key)) {
             data.setIdentity(reusableIds.get(key));
             reusableIds.remove(key);
         }
     }
+
+    /**
+     * Saves the database id of a record being removed, so that it can be
+     * reused by a record added later.
+     *
+     * @param data The record being removed.
+     */
+    protected void saveIdentity(TemporalData data) {
+        if (data.getIdentity() != null) {
+            if (reusableIds == null) {
+                reusableIds = new HashMap<Object,Object>();
+            }
+            reusableIds.put(data.getLogicalKey(), data.getIdentity());
+        }
+    }
+
+    /**
+     * Iterates over the records from the specified one onwards. Unlike
+     * <tt>set.tailSet(from, inclusive).iterator()</tt>, this does not
+     * create a view of the set.
+     *
+     * @param from The record, or search key, to start from.
+     * @param inclusive Whether a record starting on the same date is included.
+     * @return An iterator that saves the ids of removed records.
+     */
+    protected Iterator<TemporalData> tailIterator(TemporalData from, boolean inclusive) {
+        if (set instanceof CompactTimeLineSet) {
+            return new TimeLineIterator(((CompactTimeLineSet) set).tailIterator(from, inclusive));
+        }
+        return new TimeLineIterator(set.tailSet(from, inclusive).iterator());
+    }
     
     /**
      * Merges adjacent periods with equal data.
@@ -329,10 +658,10 @@ implements TimeLine, Serializable {
         while (it.hasNext()) {
             TemporalData current = (TemporalData) it.next();
             if (last.getTimePeriod().isAdjacentTo(current.getTimePeriod())
-                    && last.equalsIgnorePeriod(current)) {
+                    && equalsIgnorePeriod(last, current)) {
                 // Remove current and merge time periods & database id.
                 it.remove();
-                last.getTimePeriod().setEndDate(current.getTimePeriod().getEndDate());
+                last.getTimePeriod().setEndDay(current.getTimePeriod().getEndDay());
                 
                 if (last.getIdentity() == null) {
                     assignId(last);
@@ -343,6 +672,210 @@ implements TimeLine, Serializable {
         }
     }
 
+    /**
+     * Merges adjacent periods with equal data, looking only at the records
+     * that touch the specified range of days: the record before it, the
+     * records inside it, and the record after it. Records elsewhere in the
+     * timeline are assumed to be merged already.
+     *
+     * @param startDay The first day of the range that was modified.
+     * @param endDay The last day of the range that was modified.
+     */
+    protected void mergeAdjacent(int startDay, int endDay) {
+        TemporalData last = set.floor(probe(startDay - 1));
+        if (last == null) {
+            if (set.isEmpty()) {
+                return;
+            }
+            last = set.first();
+        }
+        
+        Iterator<TemporalData> it = tailIterator(last, false);
+        while (it.hasNext()) {
+            TemporalData current = it.next();
+            if (current.getTimePeriod().getStartDay() > endDay + 1) {
+                break;
+            }
+            if (last.getTimePeriod().isAdjacentTo(current.getTimePeriod())
+                    && equalsIgnorePeriod(last, current)) {
+                // Remove current and merge time periods & database id.
+                it.remove();
+                last.getTimePeriod().setEndDay(current.getTimePeriod().getEndDay());
+                
+                if (last.getIdentity() == null) {
+                    assignId(last);
+                }
+            } else {
+                last = current;
+            }
+        }
+    }
+
+    /**
+     * Tests whether two records have equal data. When both records have
+     * fingerprints, records with different fingerprints are not compared
+     * any further.
+     *
+     * @param a The first record.
+     * @param b The second record.
+     * @return <tt>a.equalsIgnorePeriod(b)</tt>.
+     */
+    protected static boolean equalsIgnorePeriod(TemporalData a, TemporalData b) {
+        if (a instanceof FingerprintedTemporalData && b instanceof FingerprintedTemporalData
+                && ((FingerprintedTemporalData) a).getValueFingerprint() 
+                    != ((FingerprintedTemporalData) b).getValueFingerprint()) {
+            return false;
+        }
+        return a.equalsIgnorePeriod(b);
+    }
+
+    /**
+     * A change made to each record in a period by <tt>update</tt>.
+     */
+    private static abstract class Change {
+        abstract void apply(TemporalData data);
+    }
+
+    /**
+     * Lightweight search key used by {@link AbstractTimeLine#probe(Date)}.
+     * It never becomes an element of a timeline.
+     */
+    static final class Probe extends AbstractTemporalData {
+        private static final long serialVersionUID = 1L;
+
+        Probe(int day) {
+            this.period = new TimePeriod(day, day);
+        }
+
+        public boolean equalsIgnorePeriod(TemporalData d) {
+            return false;
+        }
+
+        public Object cloneData() {
+            return clone();
+        }
+
+        public Object getIdentity() {
+            return null;
+        }
+
+        public void setIdentity(Object identity) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Object getTimeLineKey() {
+            return null;
+        }
+
+        public void setTimeLineKey(Object key) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Read-only TimeLine view over a range of another TimeLine's records.
+     * Changes to the parent TimeLine are visible through the view.
+     */
+    static final class SubTimeLine extends AbstractTimeLine {
+        private static final long serialVersionUID = 1L;
+        private final AbstractTimeLine parent;
+
+        SubTimeLine(AbstractTimeLine parent, NavigableSet<TemporalData> range) {
+            super(range);
+            this.parent = parent;
+        }
+
+        @Override
+        public Iterator<TemporalData> iterator() {
+            return Collections.unmodifiableSet(set).iterator();
+        }
+
+        @Override
+        public boolean add(Object obj) {
+            throw new UnsupportedOperationException("TimeLine subsets are read-only.");
+        }
+
+        public void clear(TimePeriod period) {
+            throw new UnsupportedOperationException("TimeLine subsets are read-only.");
+        }
+
+        @Override
+        public void setProperty(String prop, TimePeriod period, Object value,
+                TemporalDataFactory factory) {
+            throw new UnsupportedOperationException("TimeLine subsets are read-only.");
+        }
+
+        @Override
+        public void setProperties(Map<String,?> values, TimePeriod period,
+                TemporalDataFactory factory) {
+            throw new UnsupportedOperationException("TimeLine subsets are read-only.");
+        }
+
+        @Override
+        public <D extends TemporalData, V> void set(TemporalProperty<D,V> property,
+                TimePeriod period, V value, TemporalDataFactory factory) {
+            throw new UnsupportedOperationException("TimeLine subsets are read-only.");
+        }
+
+        @Override
+        protected TimeLine newInstance() {
+            return parent.newInstance();
+        }
+
+        @Override
+        int getModCount() {
+            return parent.getModCount();
+        }
+    }
+
+    /**
+     * Cursor that steps through the set with an iterator. Moving backwards,
+     * or far forwards, falls back to a floor search.
+     */
+    final class Cursor implements TimeLineCursor {
+        private static final int MAX_STEPS = 8;
+        private int expectedModCount;
+        private boolean positioned = false;
+        // The last record starting on or before the last date searched.
+        private TemporalData current;
+        // The record following current, and the records after that.
+        private TemporalData next;
+        private Iterator<TemporalData> ahead;
+
+        public TemporalData getAsOf(Date asOf) {
+            return getAsOf(asOf == null ? TimePeriod.END_OF_TIME_DAY : Utils.toEpochDay(asOf));
+        }
+
+        TemporalData getAsOf(int day) {
+            if (!positioned || expectedModCount != getModCount()
+                    || (current != null && day < current.getTimePeriod().getStartDay())) {
+                seek(day);
+            } else {
+                int steps = 0;
+                while (next != null && next.getTimePeriod().getStartDay() <= day) {
+                    if (++steps > MAX_STEPS) {
+                        seek(day);
+                        break;
+                    }
+                    current = next;
+                    next = ahead.hasNext() ? ahead.next() : null;
+                }
+            }
+            if (current != null && current.getTimePeriod().contains(day)) {
+                return current;
+            }
+            return null;
+        }
+
+        private void seek(int day) {
+            current = set.floor(probe(day));
+            ahead = current == null ? set.iterator() : tailIterator(current, false);
+            next = ahead.hasNext() ? ahead.next() : null;
+            expectedModCount = getModCount();
+            positioned = true;
+        }
+    }
+
     final class TimeLineIterator implements Iterator<TemporalData> {
         Iterator<TemporalData> wrapped = null;
         TemporalData current = null;
@@ -362,9 +895,10 @@ implements TimeLine, Serializable {
 
         public void remove() {
             wrapped.remove();
-            if (current != null && current.getIdentity() != null) {
+            modCount++;
+            if (current != null) {
                 // Save the surrogate row id for possible reuse.
-                reusableIds.put(current.getLogicalKey(), current.getIdentity());
+                saveIdentity(current);
             }
         }
         
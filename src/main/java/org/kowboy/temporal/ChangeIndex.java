@@ -0,0 +1,131 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index from effective date to the keys that have a change point on that
+ * date. A record has a change point on its start date and, unless it runs
+ * to the end of time, on the day after its end date.<p>
+ * 
+ * The index is updated one key at a time by comparing the key's change
+ * points before and after a change, so it stays exact however the key's 
+ * timeline was modified. Methods are synchronized, so the index can be 
+ * updated while holding different per-key locks.
+ */
+@SuppressWarnings("unchecked")
+final class ChangeIndex implements Serializable {
+    private static final long serialVersionUID = 6413392651276374126L;
+    private static final int[] NONE = new int[0];
+    
+    private final TreeMap<Integer,Set<Object>> keysByDay = new TreeMap<Integer,Set<Object>>();
+    private final Map<Object,int[]> daysByKey = new HashMap<Object,int[]>();
+    
+    /**
+     * Updates the change points of one key.
+     * 
+     * @param key The timeline key.
+     * @param line The key's timeline, or null if the key was removed.
+     */
+    synchronized void update(Object key, TimeLine line) {
+        int[] before = daysByKey.get(key);
+        if (before == null) {
+            before = NONE;
+        }
+        int[] after = changePoints(line);
+        if (after.length == 0) {
+            daysByKey.remove(key);
+        } else {
+            daysByKey.put(key, after);
+        }
+        
+        // Walk both sorted arrays, dropping days that went away and adding 
+        // the new ones.
+        int i = 0;
+        int j = 0;
+        while (i < before.length || j < after.length) {
+            if (j == after.length || (i < before.length && before[i] < after[j])) {
+                Set<Object> keys = keysByDay.get(before[i]);
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByDay.remove(before[i]);
+                }
+                i++;
+            } else if (i == before.length || after[j] < before[i]) {
+                Set<Object> keys = keysByDay.get(after[j]);
+                if (keys == null) {
+                    keys = new HashSet<Object>();
+                    keysByDay.put(after[j], keys);
+                }
+                keys.add(key);
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+    
+    synchronized void clear() {
+        keysByDay.clear();
+        daysByKey.clear();
+    }
+    
+    /**
+     * Gets the keys with a change point after <tt>fromDay</tt>, up to and 
+     * including <tt>toDay</tt>.
+     */
+    synchronized Set<Object> getChangedKeys(int fromDay, int toDay) {
+        Set<Object> changed = new HashSet<Object>();
+        if (fromDay < toDay) {
+            for (Set<Object> keys : keysByDay.subMap(fromDay + 1, toDay + 1).values()) {
+                changed.addAll(keys);
+            }
+        }
+        return changed;
+    }
+    
+    private static int[] changePoints(TimeLine line) {
+        if (line == null || line.isEmpty()) {
+            return NONE;
+        }
+        int[] days = new int[line.size() * 2];
+        int count = 0;
+        Iterator<TemporalData> it = line.iterator();
+        while (it.hasNext()) {
+            TimePeriod p = it.next().getTimePeriod();
+            if (count == 0 || days[count - 1] != p.getStartDay()) {
+                days[count++] = p.getStartDay();
+            }
+            if (p.getEndDay() != TimePeriod.END_OF_TIME_DAY) {
+                days[count++] = p.getEndDay() + 1;
+            }
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(days, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
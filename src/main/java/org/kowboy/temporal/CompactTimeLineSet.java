@@ -0,0 +1,702 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Set of records ordered by start date that keeps small timelines in a
+ * sorted array. Most timelines only ever hold a few records, and a
+ * <tt>TreeSet</tt> costs an entry object per record plus the set and map
+ * objects themselves. Once the set grows past <tt>MAX_COMPACT</tt> records,
+ * or a descending view or iterator is requested, the records move to a 
+ * <tt>TreeSet</tt> and every call is delegated to it from then on. The set
+ * never moves back, so descending views handed out earlier stay backed by
+ * it. Moving is not a change of the set: iterators created before it carry
+ * on over the tree.<p>
+ *
+ * Sub, head and tail sets are views that go through the navigation methods
+ * of this set, so requesting one leaves the records where they are.<p>
+ *
+ * Like the <tt>TreeSet</tt> it replaces, records are compared with
+ * <tt>StartDateComparator</tt>, so two records with the same start date are
+ * the same element.
+ */
+final class CompactTimeLineSet extends AbstractSet<TemporalData>
+implements NavigableSet<TemporalData>, Serializable {
+    private static final long serialVersionUID = 5620935813874271097L;
+
+    /** The largest number of records kept in the array. */
+    static final int MAX_COMPACT = 8;
+
+    private static final Comparator<TemporalData> ORDER = new StartDateComparator();
+    private static final TemporalData[] EMPTY = new TemporalData[0];
+
+    // Sorted records, or null once the set has moved to the tree.
+    private TemporalData[] elements = EMPTY;
+    private int size;
+    private TreeSet<TemporalData> tree;
+    // Changes made through the set, for the array iterators.
+    private transient int modCount;
+
+    /**
+     * @return <tt>true</tt> if the records are still kept in the array.
+     */
+    boolean isCompact() {
+        return tree == null;
+    }
+
+    @Override
+    public int size() {
+        return tree == null ? size : tree.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (tree != null) {
+            return tree.contains(o);
+        }
+        return search(startDay(o)) >= 0;
+    }
+
+    @Override
+    public boolean add(TemporalData data) {
+        if (tree != null) {
+            return changed(tree.add(data));
+        }
+        int i = search(startDay(data));
+        if (i >= 0) {
+            return false;
+        }
+        modCount++;
+        if (size == MAX_COMPACT) {
+            inflate();
+            return tree.add(data);
+        }
+        i = -i - 1;
+        if (size == elements.length) {
+            TemporalData[] grown = new TemporalData[Math.min(Math.max(2, size * 2), MAX_COMPACT)];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+        }
+        System.arraycopy(elements, i, elements, i + 1, size - i);
+        elements[i] = data;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (tree != null) {
+            return changed(tree.remove(o));
+        }
+        int i = search(startDay(o));
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        if (tree != null) {
+            tree.clear();
+        } else {
+            elements = EMPTY;
+            size = 0;
+        }
+    }
+
+    @Override
+    public Iterator<TemporalData> iterator() {
+        return tree == null ? new ArrayIterator(0) : tree.iterator();
+    }
+
+    /**
+     * Iterates over the records from the specified one onwards, without
+     * creating a view of the set.
+     *
+     * @param from The record, or search key, to start from.
+     * @param inclusive Whether a record starting on the same date is included.
+     * @return An iterator supporting <tt>remove</tt>.
+     */
+    Iterator<TemporalData> tailIterator(TemporalData from, boolean inclusive) {
+        if (tree != null) {
+            return tree.tailSet(from, inclusive).iterator();
+        }
+        int i = search(startDay(from));
+        return new ArrayIterator(i >= 0 ? (inclusive ? i : i + 1) : -i - 1);
+    }
+
+    public Comparator<? super TemporalData> comparator() {
+        return ORDER;
+    }
+
+    public TemporalData first() {
+        if (tree != null) {
+            return tree.first();
+        }
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[0];
+    }
+
+    public TemporalData last() {
+        if (tree != null) {
+            return tree.last();
+        }
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[size - 1];
+    }
+
+    public TemporalData floor(TemporalData e) {
+        if (tree != null) {
+            return tree.floor(e);
+        }
+        int i = search(startDay(e));
+        return at(i >= 0 ? i : -i - 2);
+    }
+
+    public TemporalData lower(TemporalData e) {
+        if (tree != null) {
+            return tree.lower(e);
+        }
+        int i = search(startDay(e));
+        return at(i >= 0 ? i - 1 : -i - 2);
+    }
+
+    public TemporalData ceiling(TemporalData e) {
+        if (tree != null) {
+            return tree.ceiling(e);
+        }
+        int i = search(startDay(e));
+        return at(i >= 0 ? i : -i - 1);
+    }
+
+    public TemporalData higher(TemporalData e) {
+        if (tree != null) {
+            return tree.higher(e);
+        }
+        int i = search(startDay(e));
+        return at(i >= 0 ? i + 1 : -i - 1);
+    }
+
+    public TemporalData pollFirst() {
+        if (tree != null) {
+            return changed(tree.pollFirst());
+        }
+        return size == 0 ? null : removeAt(0);
+    }
+
+    public TemporalData pollLast() {
+        if (tree != null) {
+            return changed(tree.pollLast());
+        }
+        return size == 0 ? null : removeAt(size - 1);
+    }
+
+    public Iterator<TemporalData> descendingIterator() {
+        return inflate().descendingIterator();
+    }
+
+    public NavigableSet<TemporalData> descendingSet() {
+        return inflate().descendingSet();
+    }
+
+    public NavigableSet<TemporalData> subSet(TemporalData fromElement, boolean fromInclusive,
+            TemporalData toElement, boolean toInclusive) {
+        return new RangeView(bound(fromElement), fromInclusive, bound(toElement), toInclusive);
+    }
+
+    public NavigableSet<TemporalData> headSet(TemporalData toElement, boolean inclusive) {
+        return new RangeView(null, false, bound(toElement), inclusive);
+    }
+
+    public NavigableSet<TemporalData> tailSet(TemporalData fromElement, boolean inclusive) {
+        return new RangeView(bound(fromElement), inclusive, null, false);
+    }
+
+    public SortedSet<TemporalData> subSet(TemporalData fromElement, TemporalData toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    public SortedSet<TemporalData> headSet(TemporalData toElement) {
+        return headSet(toElement, false);
+    }
+
+    public SortedSet<TemporalData> tailSet(TemporalData fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /**
+     * Moves the records to a <tt>TreeSet</tt>, if they are not there already.
+     * This is done ahead of time for sets that will be read by several
+     * threads, since a descending view requested later would do it during
+     * a read.
+     *
+     * @return The tree now holding the records.
+     */
+    TreeSet<TemporalData> inflate() {
+        if (tree == null) {
+            TreeSet<TemporalData> t = new TreeSet<TemporalData>(ORDER);
+            for (int i = 0; i < size; i++) {
+                t.add(elements[i]);
+            }
+            tree = t;
+            elements = null;
+            size = 0;
+        }
+        return tree;
+    }
+
+    /**
+     * Binary search of the array for a start day.
+     *
+     * @return The index of the record starting on the day, or
+     *      <tt>-(insertion point) - 1</tt> if there is none.
+     */
+    private int search(int day) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = elements[mid].getTimePeriod().getStartDay();
+            if (start < day) {
+                low = mid + 1;
+            } else if (start > day) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private boolean changed(boolean changed) {
+        if (changed) {
+            modCount++;
+        }
+        return changed;
+    }
+
+    private TemporalData changed(TemporalData removed) {
+        if (removed != null) {
+            modCount++;
+        }
+        return removed;
+    }
+
+    private TemporalData at(int i) {
+        return i >= 0 && i < size ? elements[i] : null;
+    }
+
+    private TemporalData removeAt(int i) {
+        modCount++;
+        TemporalData removed = elements[i];
+        System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+        elements[--size] = null;
+        return removed;
+    }
+
+    /**
+     * Rejects a view bound that can not be compared, as the tree would.
+     */
+    private static TemporalData bound(TemporalData bound) {
+        startDay(bound);
+        return bound;
+    }
+
+    private static int startDay(Object o) {
+        TemporalData data = (TemporalData) o;
+        if (data == null || data.getTimePeriod() == null) {
+            throw new IllegalArgumentException
+                ("Can not compare null object references");
+        }
+        return data.getTimePeriod().getStartDay();
+    }
+
+    /**
+     * Iterator over the array. Like the <tt>TreeSet</tt> iterators, it
+     * fails once the set has changed other than through the iterator,
+     * as far as it can tell. If the set moves to the tree without changing,
+     * the iterator continues with the remaining records of the tree.
+     */
+    private final class ArrayIterator implements Iterator<TemporalData> {
+        // Moving to the tree leaves the array as it was.
+        private final TemporalData[] array = elements;
+        private int expectedModCount = modCount;
+        private int expectedSize = size;
+        private int next;
+        private int last = -1;
+        // Takes over once the set has moved to the tree.
+        private Iterator<TemporalData> rest;
+
+        ArrayIterator(int next) {
+            this.next = next;
+        }
+
+        public boolean hasNext() {
+            return moved() ? rest.hasNext() : next < expectedSize;
+        }
+
+        public TemporalData next() {
+            if (moved()) {
+                last = -1;
+                return rest.next();
+            }
+            checkForChanges();
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return array[last];
+        }
+
+        public void remove() {
+            if (last < 0) {
+                if (rest == null) {
+                    throw new IllegalStateException();
+                }
+                rest.remove();
+                expectedModCount = ++modCount;
+                return;
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (tree != null) {
+                // Returned from the array before the move; nothing has been
+                // read from the tree yet, so start over after removing it.
+                tree.remove(array[last]);
+                modCount++;
+                rest = null;
+            } else {
+                removeAt(last);
+                next = last;
+                expectedSize = size;
+            }
+            expectedModCount = modCount;
+            last = -1;
+        }
+
+        /**
+         * Switches to the tree if the set has moved there unchanged.
+         *
+         * @return <tt>true</tt> if the tree iterator is in use.
+         */
+        private boolean moved() {
+            if (rest == null && tree != null && modCount == expectedModCount) {
+                if (next < expectedSize) {
+                    rest = tree.tailSet(array[next], true).iterator();
+                } else if (expectedSize > 0) {
+                    rest = tree.tailSet(array[expectedSize - 1], false).iterator();
+                } else {
+                    rest = tree.iterator();
+                }
+            }
+            return rest != null;
+        }
+
+        private void checkForChanges() {
+            if (modCount != expectedModCount || elements != array) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * View of the records between two bounds, either of which may be 
+     * missing. Unlike the <tt>TreeSet</tt> views, a view of a view is
+     * limited to both ranges rather than rejecting bounds outside this one.
+     */
+    private final class RangeView extends AbstractSet<TemporalData>
+    implements NavigableSet<TemporalData> {
+        // Null for no bound.
+        private final TemporalData from;
+        private final boolean fromInclusive;
+        private final TemporalData to;
+        private final boolean toInclusive;
+
+        RangeView(TemporalData from, boolean fromInclusive,
+                TemporalData to, boolean toInclusive) {
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            for (Iterator<TemporalData> it = iterator(); it.hasNext(); it.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return lowest() == null;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return inRange(o) && CompactTimeLineSet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(TemporalData data) {
+            if (!inRange(data)) {
+                throw new IllegalArgumentException("Record out of range");
+            }
+            return CompactTimeLineSet.this.add(data);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return inRange(o) && CompactTimeLineSet.this.remove(o);
+        }
+
+        /**
+         * Iterates up to the last record in range when the iterator is
+         * created. Any other change to the set makes the underlying 
+         * iterator fail, so the records after it are never reached.
+         */
+        @Override
+        public Iterator<TemporalData> iterator() {
+            final TemporalData end = highest();
+            final Iterator<TemporalData> it = from == null
+                ? CompactTimeLineSet.this.iterator() : tailIterator(from, fromInclusive);
+            return new Iterator<TemporalData>() {
+                private boolean done = end == null;
+
+                public boolean hasNext() {
+                    return !done;
+                }
+
+                public TemporalData next() {
+                    if (done) {
+                        throw new NoSuchElementException();
+                    }
+                    TemporalData data = it.next();
+                    done = ORDER.compare(data, end) >= 0;
+                    return data;
+                }
+
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+
+        public Comparator<? super TemporalData> comparator() {
+            return ORDER;
+        }
+
+        public TemporalData first() {
+            TemporalData first = lowest();
+            if (first == null) {
+                throw new NoSuchElementException();
+            }
+            return first;
+        }
+
+        public TemporalData last() {
+            TemporalData last = highest();
+            if (last == null) {
+                throw new NoSuchElementException();
+            }
+            return last;
+        }
+
+        public TemporalData floor(TemporalData e) {
+            return tooHigh(e) ? highest() : within(CompactTimeLineSet.this.floor(e));
+        }
+
+        public TemporalData lower(TemporalData e) {
+            return tooHigh(e) ? highest() : within(CompactTimeLineSet.this.lower(e));
+        }
+
+        public TemporalData ceiling(TemporalData e) {
+            return tooLow(e) ? lowest() : within(CompactTimeLineSet.this.ceiling(e));
+        }
+
+        public TemporalData higher(TemporalData e) {
+            return tooLow(e) ? lowest() : within(CompactTimeLineSet.this.higher(e));
+        }
+
+        public TemporalData pollFirst() {
+            TemporalData first = lowest();
+            if (first != null) {
+                CompactTimeLineSet.this.remove(first);
+            }
+            return first;
+        }
+
+        public TemporalData pollLast() {
+            TemporalData last = highest();
+            if (last != null) {
+                CompactTimeLineSet.this.remove(last);
+            }
+            return last;
+        }
+
+        public Iterator<TemporalData> descendingIterator() {
+            return inTree().descendingIterator();
+        }
+
+        public NavigableSet<TemporalData> descendingSet() {
+            return inTree().descendingSet();
+        }
+
+        public NavigableSet<TemporalData> subSet(TemporalData fromElement, boolean fromInclusive,
+                TemporalData toElement, boolean toInclusive) {
+            bound(fromElement);
+            bound(toElement);
+            boolean higherFrom = from == null || below(from, fromElement, fromInclusive);
+            boolean lowerTo = to == null || above(to, toElement, toInclusive);
+            return new RangeView(higherFrom ? fromElement : from,
+                    higherFrom ? fromInclusive : this.fromInclusive,
+                    lowerTo ? toElement : to, lowerTo ? toInclusive : this.toInclusive);
+        }
+
+        public NavigableSet<TemporalData> headSet(TemporalData toElement, boolean inclusive) {
+            bound(toElement);
+            boolean lowerTo = to == null || above(to, toElement, inclusive);
+            return new RangeView(from, fromInclusive,
+                    lowerTo ? toElement : to, lowerTo ? inclusive : toInclusive);
+        }
+
+        public NavigableSet<TemporalData> tailSet(TemporalData fromElement, boolean inclusive) {
+            bound(fromElement);
+            boolean higherFrom = from == null || below(from, fromElement, inclusive);
+            return new RangeView(higherFrom ? fromElement : from,
+                    higherFrom ? inclusive : fromInclusive, to, toInclusive);
+        }
+
+        public SortedSet<TemporalData> subSet(TemporalData fromElement, TemporalData toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<TemporalData> headSet(TemporalData toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<TemporalData> tailSet(TemporalData fromElement) {
+            return tailSet(fromElement, true);
+        }
+
+        private TemporalData lowest() {
+            TemporalData first;
+            if (from == null) {
+                first = CompactTimeLineSet.this.isEmpty() ? null : CompactTimeLineSet.this.first();
+            } else {
+                first = fromInclusive 
+                    ? CompactTimeLineSet.this.ceiling(from) : CompactTimeLineSet.this.higher(from);
+            }
+            return first == null || tooHigh(first) ? null : first;
+        }
+
+        private TemporalData highest() {
+            TemporalData last;
+            if (to == null) {
+                last = CompactTimeLineSet.this.isEmpty() ? null : CompactTimeLineSet.this.last();
+            } else {
+                last = toInclusive 
+                    ? CompactTimeLineSet.this.floor(to) : CompactTimeLineSet.this.lower(to);
+            }
+            return last == null || tooLow(last) ? null : last;
+        }
+
+        /**
+         * @return The record, or null if it is null or out of range.
+         */
+        private TemporalData within(TemporalData data) {
+            return data == null || !inRange(data) ? null : data;
+        }
+
+        private boolean inRange(Object o) {
+            return !tooLow(o) && !tooHigh(o);
+        }
+
+        private boolean tooLow(Object o) {
+            return from != null && below(o, from, fromInclusive);
+        }
+
+        private boolean tooHigh(Object o) {
+            return to != null && above(o, to, toInclusive);
+        }
+
+        /**
+         * @return The records in range, as a view of the tree they have
+         *      been moved to.
+         */
+        private NavigableSet<TemporalData> inTree() {
+            NavigableSet<TemporalData> range = inflate();
+            if (from != null && to != null && (startDay(from) > startDay(to)
+                    || (startDay(from) == startDay(to) && !fromInclusive))) {
+                // Limiting a view to a range outside it leaves nothing.
+                return range.subSet(from, false, from, false);
+            }
+            if (from != null) {
+                range = range.tailSet(from, fromInclusive);
+            }
+            if (to != null) {
+                range = range.headSet(to, toInclusive);
+            }
+            return range;
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the record starts before a lower bound.
+     */
+    private static boolean below(Object o, TemporalData from, boolean inclusive) {
+        int day = startDay(o);
+        int bound = startDay(from);
+        return day < bound || (!inclusive && day == bound);
+    }
+
+    /**
+     * @return <tt>true</tt> if the record starts after an upper bound.
+     */
+    private static boolean above(Object o, TemporalData to, boolean inclusive) {
+        int day = startDay(o);
+        int bound = startDay(to);
+        return day > bound || (!inclusive && day == bound);
+    }
+}
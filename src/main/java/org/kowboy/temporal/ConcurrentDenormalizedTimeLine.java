@@ -0,0 +1,311 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A denormalized timeline that can be shared between threads. Reads never
+ * take a lock: each key's timeline is replaced, never modified, once it
+ * has been published. A write locks the key's stripe, copies the key's
+ * timeline, changes the copy and then publishes it. Readers of other keys
+ * are never blocked, and readers of the same key keep seeing the previous
+ * version until the write is done.<p>
+ * 
+ * Every write copies the whole timeline of its key: each record of the key
+ * is cloned and the clones are loaded into a new timeline, so a write costs
+ * time and garbage in proportion to the number of records of the key, even
+ * when it changes one record. This class therefore suits reference data
+ * that is read far more often than it is written, with short histories per
+ * key. Published timelines are prepared so that reads never write to them;
+ * in particular they are kept as trees rather than compact arrays, so they
+ * use more memory than the timelines of <tt>DenormalizedTimeLineImpl</tt>.<p>
+ * 
+ * Records returned by reads must be treated as read-only. Iterators are
+ * weakly consistent: they see each key's timeline as it was when the
+ * iterator reached it. Operations over many keys, such as <tt>addAll</tt> and 
+ * <tt>clear(TimePeriod)</tt>, change each key atomically but not all keys
+ * at once.
+ * 
+ * @see org.kowboy.temporal.DenormalizedTimeLineImpl
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentDenormalizedTimeLine extends DenormalizedTimeLineImpl {
+
+    private static final long serialVersionUID = 2484166304417013950L;
+    
+    /**
+     * Number of write lock stripes; a power of two.
+     */
+    private static final int STRIPES = 64;
+    
+    private transient Object[] locks;
+    
+    private final AtomicInteger size = new AtomicInteger();
+    
+    /**
+     * Creates a new concurrent timeline using perpetual timelines for
+     * each key.
+     */
+    public ConcurrentDenormalizedTimeLine() {
+        this(new PerpetualTimeLineFactory());
+    }
+    
+    public ConcurrentDenormalizedTimeLine(TimeLineFactory factory) {
+        super(factory, new ConcurrentHashMap<Object,TimeLine>());
+        locks = newLocks();
+    }
+    
+    /**
+     * Creates a new concurrent timeline initialized with temporal data from
+     * the specified <tt>Collection</tt>.
+     * 
+     * @param factory Creates the per-key timelines.
+     * @param c The collection whose elements should be added.
+     */
+    public ConcurrentDenormalizedTimeLine(TimeLineFactory factory, Collection<TemporalData> c) {
+        this(factory);
+        addAll(c);
+    }
+
+    @Override
+    public boolean add(Object obj) {
+        TemporalData d = (TemporalData) obj;
+        Object key = d.getTimeLineKey();
+        synchronized (lockFor(key)) {
+            TimeLine line = copy(timeLines.get(key), null);
+            boolean changed = line.add(d);
+            if (changed) {
+                publish(key, line);
+            }
+            return changed;
+        }
+    }
+    
+    @Override
+    public boolean remove(Object obj) {
+        if (!(obj instanceof TemporalData)) {
+            return false;
+        }
+        TemporalData d = (TemporalData) obj;
+        Object key = d.getTimeLineKey();
+        synchronized (lockFor(key)) {
+            TimeLine line = timeLines.get(key);
+            if (line == null || !line.contains(d)) {
+                return false;
+            }
+            publish(key, copy(line, d));
+            return true;
+        }
+    }
+    
+    /**
+     * Provides an iterator over all the elements in this composite timeline.
+     * There is no guaranteed order. Removing through the iterator removes
+     * the record from a new copy of its timeline.
+     * 
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<TemporalData> iterator() {
+        return copyOnRemove(super.iterator());
+    }
+
+    /**
+     * Provides an iterator over all the elements in this composite timeline
+     * in order of start date. Removing through the iterator removes the 
+     * record from a new copy of its timeline.
+     * 
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<TemporalData> chronologicalIterator() {
+        return copyOnRemove(super.chronologicalIterator());
+    }
+
+    @Override
+    public void setProperties(final Object key,
+            final Map<String,?> values, 
+            TimePeriod period, 
+            final TemporalDataFactory factory) {
+        synchronized (lockFor(key)) {
+            TimeLine line = copy(timeLines.get(key), null);
+            line.setProperties(values, period, factory);
+            publish(key, line);
+        }
+    }
+
+    /**
+     * Applies an operation to the timelines of several keys, in parallel
+     * if an executor has been set.
+     * Each key is locked, copied, changed and published on its own, so
+     * readers are never blocked and each key changes atomically.
+     */
+    @Override
+    boolean forEachKey(List<Object> keys, final boolean create, final KeyOperation op) {
+        List<Boolean> results = ParallelTasks.run(getExecutor(), keys, 
+                new ParallelTasks.Work<Object,Boolean>() {
+            Boolean run(List<Object> items, int from, int to) {
+                boolean changed = false;
+                for (int i = from; i < to; i++) {
+                    Object key = items.get(i);
+                    synchronized (lockFor(key)) {
+                        TimeLine line = timeLines.get(key);
+                        if (line == null && !create) {
+                            continue;
+                        }
+                        line = copy(line, null);
+                        if (op.apply(key, line)) {
+                            publish(key, line);
+                            changed = true;
+                        }
+                    }
+                }
+                return changed;
+            }
+        });
+        return results.contains(Boolean.TRUE);
+    }
+
+    @Override
+    public void clear() {
+        Iterator<Object> keys = timeLines.keySet().iterator();
+        while (keys.hasNext()) {
+            Object key = keys.next();
+            synchronized (lockFor(key)) {
+                TimeLine line = timeLines.remove(key);
+                if (line != null) {
+                    sizeChanged(-line.size());
+                    timeLineChanged(key, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    protected void sizeChanged(int delta) {
+        size.addAndGet(delta);
+    }
+    
+    /**
+     * Replaces the timeline for a key with a changed copy, or removes the
+     * key if the copy is empty, and updates the size and change index. The
+     * copy is shared first, so lock-free readers never change it. The
+     * caller must hold the key's lock.
+     * 
+     * @param key The timeline key.
+     * @param line The changed copy.
+     */
+    private void publish(Object key, TimeLine line) {
+        if (line instanceof AbstractTimeLine) {
+            ((AbstractTimeLine) line).share();
+        }
+        TimeLine old = line.isEmpty() ? timeLines.remove(key) : timeLines.put(key, line);
+        sizeChanged(line.size() - (old == null ? 0 : old.size()));
+        timeLineChanged(key, line.isEmpty() ? null : line);
+    }
+    
+    /**
+     * Wraps an iterator over the published timelines so that removals go
+     * through <tt>remove(Object)</tt> instead of changing a published
+     * timeline.
+     */
+    private Iterator<TemporalData> copyOnRemove(final Iterator<TemporalData> it) {
+        return new Iterator<TemporalData>() {
+            TemporalData current = null;
+            
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public TemporalData next() {
+                current = it.next();
+                return current;
+            }
+
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentDenormalizedTimeLine.this.remove(current);
+                current = null;
+            }
+        };
+    }
+    
+    /**
+     * Copies a timeline so it can be changed without affecting readers of
+     * the original. The records are cloned, since timeline operations 
+     * change the periods of existing records.
+     * 
+     * @param line The timeline to copy, or null for a new empty timeline.
+     * @param exclude A record to leave out of the copy, or null.
+     * @return The copy.
+     */
+    private TimeLine copy(TimeLine line, TemporalData exclude) {
+        TimeLine copy = newTimeLine();
+        if (line == null) {
+            return copy;
+        }
+        List<TemporalData> records = new ArrayList<TemporalData>(line.size());
+        Iterator<TemporalData> it = line.iterator();
+        while (it.hasNext()) {
+            TemporalData d = it.next();
+            if (exclude == null || !exclude.equals(d)) {
+                records.add((TemporalData) d.clone());
+            }
+        }
+        copy.addAll(records);
+        return copy;
+    }
+    
+    private Object lockFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return locks[h & (STRIPES - 1)];
+    }
+    
+    private static Object[] newLocks() {
+        Object[] locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+    
+    private void readObject(ObjectInputStream in) 
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        locks = newLocks();
+    }
+}
@@ -18,7 +18,10 @@
  */
 package org.kowboy.temporal;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 @SuppressWarnings("unchecked")
@@ -34,6 +37,33 @@ public interface DenormalizedTimeLine extends Set {
      */
     public TemporalData getAsOf(Object key, Date asOf);
 
+    /**
+     * Gets the record effective on the specified date for every key.
+     * 
+     * @param asOf The effective date.
+     * @return A map from each key with an effective record to that record.
+     */
+    public Map<Object,TemporalData> getAllAsOf(Date asOf);
+
+    /**
+     * Creates a cursor for as-of lookups over consecutive dates in the
+     * timeline for the specified key. The cursor is bound to the key's
+     * timeline as it exists when this method is called.
+     * 
+     * @param key The TimeLine key.
+     * @return A new cursor, or <tt>TimeLineCursor.EMPTY</tt> if there is
+     *      no timeline for the key.
+     */
+    public TimeLineCursor cursor(Object key);
+
+    /**
+     * Provides an iterator over all records in order of start date, merging
+     * the per-key timelines as it goes.
+     * 
+     * @return The iterator.
+     */
+    public Iterator<TemporalData> chronologicalIterator();
+
     /**
      * Sets a temporal data property. If there is no temporal data record for
      * the specified period, then a new one will be created using the specified
@@ -49,6 +79,32 @@ public interface DenormalizedTimeLine extends Set {
             TimePeriod period, final Object value,
             final TemporalDataFactory factory);
 
+    /**
+     * Sets several temporal data properties in the timeline of one key, as
+     * <tt>TimeLine.setProperties</tt> does.
+     * 
+     * @param key The TimeLine key.
+     * @param values the property values, by property name.
+     * @param period the TimePeriod for the properties.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    public void setProperties(final Object key, final Map<String,?> values,
+            TimePeriod period, final TemporalDataFactory factory);
+
+    /**
+     * Sets a temporal data property in the timelines of several keys, as
+     * <tt>setProperty(Object, ...)</tt> does for one.
+     * 
+     * @param keys The timeline keys.
+     * @param prop the name of the property to set.
+     * @param period the TimePeriod for the property.
+     * @param value the value of the property.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    public void setPropertyForKeys(Collection<?> keys, final String prop,
+            TimePeriod period, final Object value,
+            final TemporalDataFactory factory);
+
     /**
      * Gets the value of a temporal property for a specified effective date.
      *  
@@ -59,6 +115,49 @@ public interface DenormalizedTimeLine extends Set {
      */
     public Object getProperty(Object key, String prop, Date asOf);
 
+    /**
+     * Sets a temporal data property in the timeline of one key, through a
+     * typed property handle.
+     * 
+     * @param key The TimeLine key.
+     * @param property the property to set.
+     * @param period the TimePeriod for the property.
+     * @param value the value of the property.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    public <D extends TemporalData, V> void set(Object key, TemporalProperty<D,V> property,
+            TimePeriod period, V value, TemporalDataFactory factory);
+
+    /**
+     * Gets the value of a temporal property for a specified effective date,
+     * through a typed property handle.
+     *  
+     * @param key The TimeLine key.
+     * @param property the property to get.
+     * @param asOf the effective date.
+     * @return the property value at the specified effective date.
+     */
+    public <D extends TemporalData, V> V get(Object key, TemporalProperty<D,V> property, Date asOf);
+
+    /**
+     * Gets the number of keys that have at least one record.
+     * 
+     * @return The number of keys.
+     */
+    public int getKeyCount();
+
+    /**
+     * Gets the keys whose timelines change after one date, up to and 
+     * including another: keys with a record that starts after 
+     * <tt>from</tt> and on or before <tt>to</tt>, or that ends on or after
+     * <tt>from</tt> and before <tt>to</tt>.
+     * 
+     * @param from The earlier date.
+     * @param to The later date.
+     * @return The keys that changed.
+     */
+    public Set<Object> getChangedKeys(Date from, Date to);
+
     /**
      * Creates a "gap" in the timeline(s). This can be used to terminate records
      * from a particular start date to the end of time.
@@ -67,4 +166,4 @@ public interface DenormalizedTimeLine extends Set {
      */
     public void clear(TimePeriod period);
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -22,11 +22,21 @@ import java.io.Serializable;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 @SuppressWarnings("unchecked")
 public class DenormalizedTimeLineImpl 
@@ -38,6 +48,17 @@ implements Serializable, DenormalizedTimeLine {
     Map<Object,TimeLine> timeLines;
     private TimeLineFactory factory;
     
+    /**
+     * Number of records in all timelines, kept up to date as the timelines
+     * change. Timelines that become empty are removed from the map, so
+     * its size is the number of keys.
+     */
+    private int size;
+    
+    private transient ExecutorService executor;
+    
+    private ChangeIndex changeIndex;
+    
     /**
      * Creates a new composite timeline. 
      */
@@ -46,7 +67,19 @@ implements Serializable, DenormalizedTimeLine {
     }
     
     public DenormalizedTimeLineImpl(TimeLineFactory factory) {
-        this.timeLines = new Hashtable<Object,TimeLine>();
+        this(factory, new Hashtable<Object,TimeLine>());
+    }
+    
+    /**
+     * Creates a new composite timeline that keeps its per-key timelines in
+     * the specified map.
+     * 
+     * @param factory Creates the per-key timelines.
+     * @param timeLines An empty map to hold the per-key timelines.
+     */
+    protected DenormalizedTimeLineImpl(TimeLineFactory factory, 
+            Map<Object,TimeLine> timeLines) {
+        this.timeLines = timeLines;
         this.factory = factory;
     }
     
@@ -65,7 +98,7 @@ implements Serializable, DenormalizedTimeLine {
      * Adds the <tt>TemporalData</tt> object to one of the contained timelines
      * if one already exists for the temporal data key. If a timeline does not
      * already exist for this key, it will be created using the 
-     * <tt>newTimeLine()</tt> abstract method that subclasses must implement.
+     * <tt>newTimeLine()</tt> method.
      * 
      * @param d The <tt>TemporalData</tt> object to add.
      * @return <tt>true</tt> if the contained timeline was modified as a result
@@ -74,12 +107,64 @@ implements Serializable, DenormalizedTimeLine {
     @Override
     public boolean add(Object obj) {
         TemporalData d = (TemporalData) obj;
-        TimeLine line = (TimeLine) timeLines.get(d.getTimeLineKey());
-        if (line == null) {
-            line = factory.createTimeLine();
-            timeLines.put(d.getTimeLineKey(), line);
+        Object key = canonicalKey(d.getTimeLineKey());
+        TimeLine line = (TimeLine) timeLines.get(key);
+        boolean created = line == null;
+        if (created) {
+            line = newTimeLine();
+        }
+        int before = line.size();
+        boolean changed = line.add(d);
+        sizeChanged(line.size() - before);
+        if (created && !line.isEmpty()) {
+            timeLines.put(key, line);
         }
-        return line.add(d);
+        if (changed) {
+            timeLineChanged(key, line);
+        }
+        return changed;
+    }
+    
+    /**
+     * Adds the records in the specified collection. The records are grouped
+     * by key and each group is added to its timeline with 
+     * <tt>TimeLine.addAll</tt>, so an empty timeline is loaded in one pass
+     * when the records are in start date order.
+     * Different keys are loaded in parallel if an executor has been set.
+     * 
+     * @param c The records to add.
+     * @return <tt>true</tt> if any timeline was modified.
+     */
+    @Override
+    public boolean addAll(Collection c) {
+        final Map<Object,List<TemporalData>> byKey = groupByKey(c);
+        return forEachKey(new ArrayList<Object>(byKey.keySet()), true, new KeyOperation() {
+            boolean apply(Object key, TimeLine line) {
+                return line.addAll(byKey.get(key));
+            }
+        });
+    }
+    
+    /**
+     * Converts a timeline key to the object the map of timelines reports it
+     * as, so that keys the map treats as the same key are also the same key
+     * in the change index and in grouped operations. Keys are used as they
+     * are unless a subclass keeps its timelines in a map that converts them.
+     * 
+     * @param key The timeline key.
+     * @return The key as the map reports it.
+     */
+    Object canonicalKey(Object key) {
+        return key;
+    }
+    
+    /**
+     * Creates an empty timeline for a new key.
+     * 
+     * @return The new timeline.
+     */
+    protected TimeLine newTimeLine() {
+        return factory.createTimeLine();
     }
     
     /**
@@ -94,20 +179,100 @@ implements Serializable, DenormalizedTimeLine {
     }
 
     /**
-     * Gets the size of this composite timeline, which is the simple sum of all
-     * timelines in this collection.
+     * Provides an iterator over all the elements in this composite timeline
+     * in order of start date. The timelines are merged as the iterator
+     * advances, so nothing is collected or sorted up front. Records with 
+     * the same start date are returned in no particular order.
+     * 
+     * @return The iterator.
+     */
+    public Iterator<TemporalData> chronologicalIterator() {
+        return new ChronologicalIterator();
+    }
+
+    /**
+     * Gets the size of this composite timeline, which is the sum of the 
+     * sizes of all timelines in this collection. The sum is kept up to date
+     * as the timelines change, so this does not visit every timeline.
      * 
      * @return The size of this composite.
      */
     @Override
     public int size() {
-        int sum = 0;
-        Iterator it = timeLines.values().iterator();
-        while (it.hasNext()) {
-            Collection c = (Collection) it.next();
-            sum += c.size();
+        return size;
+    }
+    
+    /**
+     * Records a change in the number of records in one of the timelines.
+     * 
+     * @param delta The number of records added, or removed if negative.
+     */
+    protected void sizeChanged(int delta) {
+        size += delta;
+    }
+    
+    /**
+     * Records that the timeline for a key has been modified, so the change
+     * index, if there is one, can be updated.
+     * 
+     * @param key The timeline key.
+     * @param line The key's timeline, or null if it was removed.
+     */
+    protected void timeLineChanged(Object key, TimeLine line) {
+        if (changeIndex != null) {
+            changeIndex.update(key, line);
+        }
+    }
+    
+    /**
+     * Turns the change index used by <tt>getChangedKeys</tt> on or off. The
+     * index is built from the current timelines when it is turned on, and
+     * then kept up to date by every modification. Turn it on before the
+     * timeline is shared between threads.
+     * 
+     * @param indexed <tt>true</tt> to keep a change index.
+     */
+    public void setChangeIndexed(boolean indexed) {
+        if (!indexed) {
+            changeIndex = null;
+        } else if (changeIndex == null) {
+            ChangeIndex index = new ChangeIndex();
+            Iterator<Map.Entry<Object,TimeLine>> it = timeLines.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Object,TimeLine> entry = it.next();
+                index.update(entry.getKey(), entry.getValue());
+            }
+            changeIndex = index;
         }
-        return sum;
+    }
+    
+    public boolean isChangeIndexed() {
+        return changeIndex != null;
+    }
+    
+    /**
+     * Gets the number of keys that have at least one record.
+     * 
+     * @return The number of keys.
+     */
+    public int getKeyCount() {
+        return timeLines.size();
+    }
+
+    /**
+     * Updates the size after a record was removed through an iterator, and
+     * drops the key's timeline if it is now empty.
+     * 
+     * @param key The key of the removed record's timeline.
+     */
+    private void removed(Object key) {
+        sizeChanged(-1);
+        TimeLine line = timeLines.get(key);
+        if (line != null && line.isEmpty()) {
+            timeLines.remove(key);
+            line = null;
+        }
+        timeLineChanged(key, line);
     }
     
     /**
@@ -119,18 +284,23 @@ implements Serializable, DenormalizedTimeLine {
      */
     class CompositeIterator implements Iterator<TemporalData> {
         List<Iterator> iterators;
+        List<Object> keys;
         Iterator<TemporalData> currentIterator;
         int currentIndex = 0;
+        int lastIndex = -1;
 
         public CompositeIterator() {
             if (timeLines.size() == 0) {
                 return;
             }
             iterators = new ArrayList<Iterator>(timeLines.size());
-            Iterator<TimeLine> lines = timeLines.values().iterator();
+            keys = new ArrayList<Object>(timeLines.size());
+            Iterator<Map.Entry<Object,TimeLine>> lines = timeLines.entrySet().iterator();
             while (lines.hasNext()) {
                 // add the iterator for the timeline.
-                iterators.add(lines.next().iterator());
+                Map.Entry<Object,TimeLine> line = lines.next();
+                iterators.add(line.getValue().iterator());
+                keys.add(line.getKey());
             }
             currentIndex = 0;
             currentIterator = iterators.get(currentIndex);
@@ -141,34 +311,116 @@ implements Serializable, DenormalizedTimeLine {
                 return false;
             }
             
-            if (currentIterator.hasNext()) {
-                return true;
-            }
-            // search remaining iterators for an element.
-            for (int i = currentIndex + 1; i < iterators.size(); i++) {
-                Iterator it = (Iterator) iterators.get(i);
-                if (it.hasNext()) {
-                    return true;
-                }
+            // skip past exhausted iterators.
+            while (!currentIterator.hasNext() && currentIndex < iterators.size() - 1) {
+                currentIterator = iterators.get(++currentIndex);
             }
-            return false;
+            return currentIterator.hasNext();
         }
 
         public TemporalData next() {
-            if (currentIterator == null) {
+            if (!hasNext()) {
                 return null;
             }
-            if (currentIterator.hasNext()) {
-                return currentIterator.next();
-            } else if (currentIndex < iterators.size() - 1) {
-                currentIterator = iterators.get(++currentIndex);
-                return this.next();
+            lastIndex = currentIndex;
+            return currentIterator.next();
+        }
+
+        public void remove() {
+            if (lastIndex < 0) {
+                throw new IllegalStateException();
             }
-            return null;
+            iterators.get(lastIndex).remove();
+            removed(keys.get(lastIndex));
+            lastIndex = -1;
+        }
+    }
+    
+    /**
+     * Iterator that merges the iterators of the underlying timelines by
+     * start date, using a heap holding the next record of each timeline.
+     */
+    class ChronologicalIterator implements Iterator<TemporalData> {
+        PriorityQueue<Head> heads;
+        
+        /**
+         * The timeline of the last record returned. It goes back on the
+         * heap once the caller has had a chance to remove that record.
+         */
+        Head last;
+        
+        public ChronologicalIterator() {
+            heads = new PriorityQueue<Head>(Math.max(1, timeLines.size()), new Comparator<Head>() {
+                public int compare(Head h1, Head h2) {
+                    int start1 = h1.current.getTimePeriod().getStartDay();
+                    int start2 = h2.current.getTimePeriod().getStartDay();
+                    return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
+                }
+            });
+            Iterator<Map.Entry<Object,TimeLine>> lines = timeLines.entrySet().iterator();
+            while (lines.hasNext()) {
+                Map.Entry<Object,TimeLine> line = lines.next();
+                Head head = new Head(line.getKey(), line.getValue().iterator());
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        }
+        
+        public boolean hasNext() {
+            restore();
+            return !heads.isEmpty();
+        }
+
+        public TemporalData next() {
+            restore();
+            if (heads.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            last = heads.poll();
+            return last.current;
         }
 
         public void remove() {
-            currentIterator.remove();
+            if (last == null || last.removed) {
+                throw new IllegalStateException();
+            }
+            last.it.remove();
+            last.removed = true;
+            removed(last.key);
+        }
+        
+        private void restore() {
+            if (last != null) {
+                if (last.advance()) {
+                    heads.add(last);
+                }
+                last = null;
+            }
+        }
+    }
+    
+    /**
+     * The position of a <tt>ChronologicalIterator</tt> in one timeline.
+     */
+    static final class Head {
+        final Object key;
+        final Iterator<TemporalData> it;
+        TemporalData current;
+        boolean removed;
+        
+        Head(Object key, Iterator<TemporalData> it) {
+            this.key = key;
+            this.it = it;
+        }
+        
+        boolean advance() {
+            removed = false;
+            if (!it.hasNext()) {
+                return false;
+            }
+            current = it.next();
+            return true;
         }
     }
     
@@ -180,9 +432,69 @@ implements Serializable, DenormalizedTimeLine {
         return line.getAsOf(asOf);
     }
 
+    /**
+     * Gets the record effective on the specified date for every key. The
+     * timelines are searched in parallel if an executor has been set.
+     * 
+     * @param asOf The effective date.
+     * @return A map from each key with an effective record to that record.
+     */
+    public Map<Object,TemporalData> getAllAsOf(final Date asOf) {
+        List<Map.Entry<Object,TimeLine>> entries = 
+            new ArrayList<Map.Entry<Object,TimeLine>>(timeLines.entrySet());
+        List<Map<Object,TemporalData>> parts = ParallelTasks.run(executor, entries, 
+                new ParallelTasks.Work<Map.Entry<Object,TimeLine>,Map<Object,TemporalData>>() {
+            Map<Object,TemporalData> run(List<Map.Entry<Object,TimeLine>> items, int from, int to) {
+                Map<Object,TemporalData> part = new HashMap<Object,TemporalData>();
+                for (int i = from; i < to; i++) {
+                    Map.Entry<Object,TimeLine> entry = items.get(i);
+                    TemporalData d = entry.getValue().getAsOf(asOf);
+                    if (d != null) {
+                        part.put(entry.getKey(), d);
+                    }
+                }
+                return part;
+            }
+        });
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        Map<Object,TemporalData> result = new HashMap<Object,TemporalData>(entries.size() * 4 / 3 + 1);
+        for (Map<Object,TemporalData> part : parts) {
+            result.putAll(part);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the executor that runs operations over all of the timelines in
+     * parallel. Without one, which is the default, they run on the calling
+     * thread. With one, record methods such as <tt>equalsIgnorePeriod</tt>
+     * and <tt>cloneData</tt>, and the <tt>TemporalDataFactory</tt> passed
+     * to an operation, are called from the executor's threads, so set one
+     * only for records that may be used from any thread.
+     * 
+     * @param executor The executor, or null to run on the calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public TimeLineCursor cursor(Object key) {
+        TimeLine line = timeLines.get(key);
+        if (line == null) {
+            return TimeLineCursor.EMPTY;
+        }
+        return line.cursor();
+    }
+
     @Override
     public void clear() {
         timeLines.clear();
+        sizeChanged(-size());
+        if (changeIndex != null) {
+            changeIndex.clear();
+        }
     }
 
     public void setProperty(final Object key,
@@ -190,14 +502,26 @@ implements Serializable, DenormalizedTimeLine {
             TimePeriod period, 
             final Object value, 
             final TemporalDataFactory factory) {
-        TimeLine line = null;
-        if (timeLines.containsKey(key)) {
-            line = timeLines.get(key);
-        } else {
-            line = this.factory.createTimeLine();
-            timeLines.put(key, line);
+        setProperties(key, Collections.singletonMap(prop, value), period, factory);
+    }
+
+    public void setProperties(final Object key,
+            final Map<String,?> values, 
+            TimePeriod period, 
+            final TemporalDataFactory factory) {
+        Object k = canonicalKey(key);
+        TimeLine line = timeLines.get(k);
+        boolean created = line == null;
+        if (created) {
+            line = newTimeLine();
+        }
+        int before = line.size();
+        line.setProperties(values, period, factory);
+        sizeChanged(line.size() - before);
+        if (created && !line.isEmpty()) {
+            timeLines.put(k, line);
         }
-        line.setProperty(prop, period, value, factory);
+        timeLineChanged(k, line);
     }
 
     public Object getProperty(Object key, String prop, Date asOf) {
@@ -208,10 +532,219 @@ implements Serializable, DenormalizedTimeLine {
         return line.getProperty(prop, asOf);
     }
 
-    public void clear(TimePeriod period) {
-        Iterator it = this.timeLines.values().iterator();
+    public <D extends TemporalData, V> void set(Object key, 
+            final TemporalProperty<D,V> property, 
+            final TimePeriod period, 
+            final V value, 
+            final TemporalDataFactory factory) {
+        forEachKey(Collections.singletonList(canonicalKey(key)), true, new KeyOperation() {
+            boolean apply(Object key, TimeLine line) {
+                line.set(property, period, value, factory);
+                return true;
+            }
+        });
+    }
+
+    public <D extends TemporalData, V> V get(Object key, TemporalProperty<D,V> property, Date asOf) {
+        TimeLine line = timeLines.get(key);
+        if (line == null) {
+            return null;
+        }
+        return line.get(property, asOf);
+    }
+
+    /**
+     * Creates a "gap" in every timeline. The timelines are cleared in 
+     * parallel if an executor has been set.
+     * 
+     * @param period The timeperiod to clear from these timelines.
+     */
+    public void clear(final TimePeriod period) {
+        forEachKey(new ArrayList<Object>(timeLines.keySet()), false, new KeyOperation() {
+            boolean apply(Object key, TimeLine line) {
+                line.clear(period);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sets a temporal data property in the timelines of several keys, as
+     * <tt>setProperty(Object, ...)</tt> does for one. The timelines are
+     * updated in parallel if an executor has been set.
+     * 
+     * @param keys The timeline keys.
+     * @param prop the name of the property to set.
+     * @param period the TimePeriod for the property.
+     * @param value the value of the property.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    public void setPropertyForKeys(Collection<?> keys, 
+            final String prop, 
+            final TimePeriod period, 
+            final Object value, 
+            final TemporalDataFactory factory) {
+        Set<Object> distinct = new LinkedHashSet<Object>();
+        for (Object key : keys) {
+            distinct.add(canonicalKey(key));
+        }
+        forEachKey(new ArrayList<Object>(distinct), true, new KeyOperation() {
+            boolean apply(Object key, TimeLine line) {
+                line.setProperty(prop, period, value, factory);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * An operation on the timeline of a single key.
+     */
+    static abstract class KeyOperation {
+        
+        /**
+         * Applies the operation. It must only touch the specified timeline.
+         * 
+         * @return <tt>true</tt> if the timeline was modified.
+         */
+        abstract boolean apply(Object key, TimeLine line);
+    }
+
+    /**
+     * Applies an operation to the timelines of several keys, in parallel
+     * if an executor has been set. 
+     * Each timeline is only touched by one task, so the result is the same
+     * as applying the operation to each key in turn. The size, the map of 
+     * timelines and the change index are updated afterwards on the calling
+     * thread, including for keys that were done when another key failed.
+     * 
+     * @param keys The distinct keys to apply the operation to.
+     * @param create Whether to create timelines for keys that have none.
+     * @param op The operation.
+     * @return <tt>true</tt> if any timeline was modified.
+     */
+    boolean forEachKey(List<Object> keys, boolean create, final KeyOperation op) {
+        final TimeLine[] lines = new TimeLine[keys.size()];
+        final boolean[] changed = new boolean[keys.size()];
+        int[] before = new int[keys.size()];
+        boolean[] created = new boolean[keys.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = timeLines.get(keys.get(i));
+            if (lines[i] == null && create) {
+                lines[i] = newTimeLine();
+                created[i] = true;
+            }
+            before[i] = lines[i] == null ? 0 : lines[i].size();
+        }
+        
+        try {
+            ParallelTasks.run(executor, keys, new ParallelTasks.Work<Object,Object>() {
+                Object run(List<Object> items, int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        if (lines[i] != null) {
+                            changed[i] = op.apply(items.get(i), lines[i]);
+                        }
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            for (int i = 0; i < lines.length; i++) {
+                TimeLine line = lines[i];
+                if (line == null) {
+                    continue;
+                }
+                Object key = keys.get(i);
+                sizeChanged(line.size() - before[i]);
+                if (line.isEmpty()) {
+                    if (!created[i]) {
+                        timeLines.remove(key);
+                    }
+                    line = null;
+                } else if (created[i]) {
+                    timeLines.put(key, line);
+                }
+                timeLineChanged(key, line);
+            }
+        }
+        
+        for (boolean b : changed) {
+            if (b) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Groups records by canonical timeline key, keeping their order within
+     * each key.
+     * 
+     * @param c The records.
+     * @return The records of each key.
+     */
+    Map<Object,List<TemporalData>> groupByKey(Collection c) {
+        Map<Object,List<TemporalData>> byKey = new LinkedHashMap<Object,List<TemporalData>>();
+        for (Object obj : c) {
+            if (obj == null) {
+                continue;
+            }
+            TemporalData d = (TemporalData) obj;
+            Object key = canonicalKey(d.getTimeLineKey());
+            List<TemporalData> records = byKey.get(key);
+            if (records == null) {
+                records = new ArrayList<TemporalData>();
+                byKey.put(key, records);
+            }
+            records.add(d);
+        }
+        return byKey;
+    }
+    
+    /**
+     * Gets the executor for parallel operations.
+     * 
+     * @return The executor, or null to run on the calling thread.
+     */
+    protected ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Gets the keys whose timelines change after one date, up to and 
+     * including another: keys with a record that starts after 
+     * <tt>from</tt> and on or before <tt>to</tt>, or that ends on or after
+     * <tt>from</tt> and before <tt>to</tt>. With a change index this only 
+     * looks at the changes in that range; otherwise every timeline is 
+     * searched.
+     * 
+     * @param from The earlier date.
+     * @param to The later date.
+     * @return The keys that changed.
+     */
+    public Set<Object> getChangedKeys(Date from, Date to) {
+        int fromDay = Utils.toEpochDay(from);
+        int toDay = Utils.toEpochDay(to);
+        ChangeIndex index = changeIndex;
+        if (index != null) {
+            return index.getChangedKeys(fromDay, toDay);
+        }
+        
+        Set<Object> changed = new HashSet<Object>();
+        if (fromDay >= toDay) {
+            return changed;
+        }
+        Iterator<Map.Entry<Object,TimeLine>> it = timeLines.entrySet().iterator();
         while (it.hasNext()) {
-            ((TimeLine) it.next()).clear(period);
+            Map.Entry<Object,TimeLine> entry = it.next();
+            TemporalData d = entry.getValue().getAsOf(from);
+            if (d == null || d.getTimePeriod().getEndDay() >= toDay) {
+                d = entry.getValue().getAfter(from);
+                if (d == null || d.getTimePeriod().getStartDay() > toDay) {
+                    continue;
+                }
+            }
+            changed.add(entry.getKey());
         }
+        return changed;
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+/**
+ * Optional interface for temporal objects with many data fields. Timelines
+ * compare the data of neighbouring records whenever they merge them; when
+ * both records implement this interface, records with different
+ * fingerprints are known to differ without calling
+ * <tt>equalsIgnorePeriod</tt>.<p>
+ *
+ * The fingerprint must be equal for any two objects whose data is equal
+ * according to <tt>equalsIgnorePeriod</tt>, and should rarely be equal
+ * otherwise. It should not include the time period or the database
+ * identity. Implementations are expected to cache it, and to discard the
+ * cached value whenever a data field is set.
+ *
+ * @see Utils#fingerprint(Object[])
+ */
+public interface FingerprintedTemporalData extends TemporalData {
+
+    /**
+     * @return A hash of the data fields, not including the time period.
+     */
+    long getValueFingerprint();
+}
@@ -0,0 +1,228 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A denormalized timeline for numeric timeline keys, such as 
+ * <tt>Integer</tt> or <tt>Long</tt> foreign keys. The per-key timelines
+ * are kept in an open addressing table of primitive <tt>long</tt> keys,
+ * which needs far less memory per key than a <tt>Hashtable</tt>, and the 
+ * <tt>long</tt> overloads of the lookup methods avoid boxing the key.<p>
+ * 
+ * Every timeline key must be a <tt>Number</tt>; other keys are rejected
+ * with an <tt>IllegalArgumentException</tt> before anything is changed.
+ * Keys are reported back as <tt>Long</tt>, for example by 
+ * <tt>getAllAsOf</tt> and <tt>getChangedKeys</tt>. The maps and sets those
+ * methods return look up any <tt>Number</tt> key by its <tt>long</tt>
+ * value, but compare iterated keys as <tt>Long</tt>.
+ * 
+ * @see org.kowboy.temporal.DenormalizedTimeLineImpl
+ */
+public class LongKeyedDenormalizedTimeLine extends DenormalizedTimeLineImpl {
+    private static final long serialVersionUID = 4395217410662785214L;
+    
+    private final LongTimeLineMap lines;
+
+    /**
+     * Creates a new composite timeline using perpetual timelines for
+     * each key.
+     */
+    public LongKeyedDenormalizedTimeLine() {
+        this(new PerpetualTimeLineFactory());
+    }
+    
+    public LongKeyedDenormalizedTimeLine(TimeLineFactory factory) {
+        this(factory, new LongTimeLineMap());
+    }
+    
+    /**
+     * Creates a new composite timeline initialized with temporal data from
+     * the specified <tt>Collection</tt>.
+     * 
+     * @param factory Creates the per-key timelines.
+     * @param c The collection whose elements should be added.
+     */
+    public LongKeyedDenormalizedTimeLine(TimeLineFactory factory, Collection<TemporalData> c) {
+        this(factory);
+        addAll(c);
+    }
+    
+    private LongKeyedDenormalizedTimeLine(TimeLineFactory factory, LongTimeLineMap lines) {
+        super(factory, lines);
+        this.lines = lines;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the key is not a number.
+     */
+    @Override
+    Object canonicalKey(Object key) {
+        return Long.valueOf(LongTimeLineMap.toLong(key));
+    }
+    
+    @Override
+    public Map<Object,TemporalData> getAllAsOf(Date asOf) {
+        return new NumberKeyMap(super.getAllAsOf(asOf));
+    }
+    
+    @Override
+    public Set<Object> getChangedKeys(Date from, Date to) {
+        return new NumberKeySet(super.getChangedKeys(from, to));
+    }
+    
+    /**
+     * Gets the TemporalData for the specified key and date.
+     * 
+     * @param key The TimeLine key.
+     * @param asOf The date to search for an effective record.
+     * @return The TemporalData if found, otherwise null.
+     */
+    public TemporalData getAsOf(long key, Date asOf) {
+        TimeLine line = lines.get(key);
+        if (line == null) {
+            return null;
+        }
+        return line.getAsOf(asOf);
+    }
+    
+    /**
+     * Creates a cursor for as-of lookups in the timeline for the specified
+     * key.
+     * 
+     * @param key The TimeLine key.
+     * @return A new cursor, or <tt>TimeLineCursor.EMPTY</tt> if there is
+     *      no timeline for the key.
+     */
+    public TimeLineCursor cursor(long key) {
+        TimeLine line = lines.get(key);
+        if (line == null) {
+            return TimeLineCursor.EMPTY;
+        }
+        return line.cursor();
+    }
+    
+    /**
+     * Gets the value of a temporal property for a specified effective date.
+     *  
+     * @param key The TimeLine key.
+     * @param prop the name of the property to get.
+     * @param asOf the effective date.
+     * @return the property value at the specified effective date.
+     */
+    public Object getProperty(long key, String prop, Date asOf) {
+        TimeLine line = lines.get(key);
+        if (line == null) {
+            return null;
+        }
+        return line.getProperty(prop, asOf);
+    }
+    
+    /**
+     * Converts a number to the <tt>Long</tt> it is kept as, for lookups.
+     * Other objects are returned as they are, and are simply not found.
+     */
+    private static Object lookupKey(Object key) {
+        return key instanceof Number ? Long.valueOf(((Number) key).longValue()) : key;
+    }
+    
+    /**
+     * Map with <tt>Long</tt> keys that looks up any number by its value.
+     */
+    private static final class NumberKeyMap extends AbstractMap<Object,TemporalData> {
+        private final Map<Object,TemporalData> map;
+        
+        NumberKeyMap(Map<Object,TemporalData> map) {
+            this.map = map;
+        }
+        
+        @Override
+        public Set<Map.Entry<Object,TemporalData>> entrySet() {
+            return map.entrySet();
+        }
+        
+        @Override
+        public int size() {
+            return map.size();
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(lookupKey(key));
+        }
+        
+        @Override
+        public TemporalData get(Object key) {
+            return map.get(lookupKey(key));
+        }
+        
+        @Override
+        public TemporalData put(Object key, TemporalData value) {
+            return map.put(lookupKey(key), value);
+        }
+        
+        @Override
+        public TemporalData remove(Object key) {
+            return map.remove(lookupKey(key));
+        }
+    }
+    
+    /**
+     * Set of <tt>Long</tt> keys that looks up any number by its value.
+     */
+    private static final class NumberKeySet extends AbstractSet<Object> {
+        private final Set<Object> set;
+        
+        NumberKeySet(Set<Object> set) {
+            this.set = set;
+        }
+        
+        @Override
+        public Iterator<Object> iterator() {
+            return set.iterator();
+        }
+        
+        @Override
+        public int size() {
+            return set.size();
+        }
+        
+        @Override
+        public boolean contains(Object key) {
+            return set.contains(lookupKey(key));
+        }
+        
+        @Override
+        public boolean add(Object key) {
+            return set.add(lookupKey(key));
+        }
+        
+        @Override
+        public boolean remove(Object key) {
+            return set.remove(lookupKey(key));
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map from numeric timeline keys to timelines, stored in parallel arrays
+ * with open addressing and linear probing. Keys are kept as primitive 
+ * <tt>long</tt> values, so a key costs a slot in each array rather than a
+ * boxed key and an entry object. <tt>Integer</tt>, <tt>Long</tt> and other
+ * <tt>Number</tt> keys are accepted and reported back as <tt>Long</tt>.<p>
+ * 
+ * Removal shifts later entries of the same cluster back instead of leaving
+ * tombstones, so lookups never slow down after many removals.
+ */
+final class LongTimeLineMap extends AbstractMap<Object,TimeLine> implements Serializable {
+    private static final long serialVersionUID = -1739026370219567423L;
+    private static final int MIN_CAPACITY = 16;
+    
+    private long[] keys;
+    private TimeLine[] values;
+    private int size;
+    
+    LongTimeLineMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new TimeLine[MIN_CAPACITY];
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    TimeLine get(long key) {
+        int mask = values.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+    
+    TimeLine put(long key, TimeLine value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                TimeLine old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > values.length * 3 / 4) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+    
+    TimeLine remove(long key) {
+        int mask = values.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                TimeLine old = values[i];
+                removeAt(i);
+                return old;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the key is not a number.
+     */
+    @Override
+    public TimeLine get(Object key) {
+        return get(toLong(key));
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public TimeLine put(Object key, TimeLine value) {
+        return put(toLong(key), value);
+    }
+    
+    @Override
+    public TimeLine remove(Object key) {
+        return remove(toLong(key));
+    }
+    
+    @Override
+    public void clear() {
+        keys = new long[MIN_CAPACITY];
+        values = new TimeLine[MIN_CAPACITY];
+        size = 0;
+    }
+    
+    @Override
+    public Set<Map.Entry<Object,TimeLine>> entrySet() {
+        return new AbstractSet<Map.Entry<Object,TimeLine>>() {
+            @Override
+            public Iterator<Map.Entry<Object,TimeLine>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    static long toLong(Object key) {
+        if (!(key instanceof Number)) {
+            throw new IllegalArgumentException("Timeline key must be a number: " + key);
+        }
+        return ((Number) key).longValue();
+    }
+    
+    private static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+    
+    /**
+     * Empties a slot, then moves back any later entries of the cluster that
+     * can no longer be reached from their home slot.
+     */
+    private void removeAt(int i) {
+        int mask = values.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) {
+                break;
+            }
+            int home = slot(keys[j], mask);
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = null;
+        size--;
+    }
+    
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        TimeLine[] oldValues = values;
+        keys = new long[capacity];
+        values = new TimeLine[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+    
+    /**
+     * Walks the slots starting just after an empty one. No cluster wraps 
+     * past that point, so entries moved back by a removal are always moved
+     * to the slot being removed or later, and are neither skipped nor
+     * returned twice.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Object,TimeLine>> {
+        final int start;
+        int position;
+        int current = -1;
+        
+        EntryIterator() {
+            int empty = 0;
+            while (values[empty] != null) {
+                empty++;
+            }
+            start = empty + 1;
+        }
+        
+        public boolean hasNext() {
+            int mask = values.length - 1;
+            while (position < values.length && values[(start + position) & mask] == null) {
+                position++;
+            }
+            return position < values.length;
+        }
+
+        public Map.Entry<Object,TimeLine> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = (start + position++) & (values.length - 1);
+            return new SimpleEntry(Long.valueOf(keys[current]), values[current]);
+        }
+
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(current);
+            // An entry may have moved into the removed slot; look at it again.
+            position--;
+            current = -1;
+        }
+    }
+    
+    /**
+     * Entry returned by the iterator. Setting its value writes through to 
+     * the map.
+     */
+    private final class SimpleEntry implements Map.Entry<Object,TimeLine> {
+        final Long key;
+        TimeLine value;
+        
+        SimpleEntry(Long key, TimeLine value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public TimeLine getValue() {
+            return value;
+        }
+
+        public TimeLine setValue(TimeLine value) {
+            TimeLine old = this.value;
+            put(key.longValue(), value);
+            this.value = value;
+            return old;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+        
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs an operation over a list of items in parallel. The list is split
+ * into contiguous chunks, one task per chunk, and the results of the
+ * chunks are returned in list order so that callers can combine them
+ * exactly as a sequential run would.<p>
+ * 
+ * Nothing runs in parallel without an executor supplied by the caller:
+ * the operations call back into record and factory code that may not be
+ * thread-safe, such as Hibernate entities tied to a session. Small lists,
+ * and calls made from inside a chunk, are also run on the calling thread.
+ * The calling thread runs every chunk that no executor thread has started
+ * yet, so a call never waits on tasks queued behind busy threads, even when
+ * it is made from a thread of the same executor. If a chunk fails, the
+ * other chunks still run to completion before the first failure is
+ * rethrown.
+ */
+final class ParallelTasks {
+    
+    /**
+     * Lists with fewer items than this per chunk are not worth splitting.
+     */
+    static final int MIN_CHUNK_SIZE = 256;
+    
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Set while the current thread runs a chunk, so nested work runs inline.
+     */
+    private static final ThreadLocal<Boolean> RUNNING = new ThreadLocal<Boolean>();
+    
+    private ParallelTasks() {
+    }
+    
+    /**
+     * An operation on a contiguous range of items.
+     */
+    static abstract class Work<T,R> {
+        
+        /**
+         * Processes the items from <tt>from</tt> (inclusive) to <tt>to</tt>
+         * (exclusive).
+         * 
+         * @return The result for this range.
+         */
+        abstract R run(List<T> items, int from, int to);
+    }
+    
+    /**
+     * Runs the work over all of the items.
+     * 
+     * @param executor The executor to run chunks on, or null to run all of
+     *      the work on the calling thread.
+     * @param items The items to process.
+     * @param work The operation to run.
+     * @return The result of each chunk, in list order.
+     */
+    static <T,R> List<R> run(ExecutorService executor, final List<T> items, 
+            final Work<T,R> work) {
+        int chunks = Math.min(PARALLELISM * 4, items.size() / MIN_CHUNK_SIZE);
+        if (executor == null || chunks < 2 || RUNNING.get() != null) {
+            return Collections.singletonList(work.run(items, 0, items.size()));
+        }
+        
+        List<Chunk<T,R>> tasks = new ArrayList<Chunk<T,R>>(chunks);
+        int from = 0;
+        for (int i = 0; i < chunks; i++) {
+            int end = (int) ((long) items.size() * (i + 1) / chunks);
+            tasks.add(new Chunk<T,R>(work, items, from, end));
+            from = end;
+        }
+        for (Chunk<T,R> task : tasks) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        // Run whatever has not been started; started chunks are skipped.
+        for (Chunk<T,R> task : tasks) {
+            task.run();
+        }
+        
+        // Wait for every chunk, even after a failure, so that no work is
+        // still running when this method returns.
+        List<R> results = new ArrayList<R>(chunks);
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Chunk<T,R> task : tasks) {
+            while (true) {
+                try {
+                    task.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            results.add(task.result);
+            if (failure == null) {
+                failure = task.failure;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+        return results;
+    }
+    
+    /**
+     * One chunk of the work. It runs on whichever thread claims it first,
+     * the executor's or the caller's.
+     */
+    private static final class Chunk<T,R> implements Runnable {
+        private final Work<T,R> work;
+        private final List<T> items;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        // Published by the latch.
+        R result;
+        Throwable failure;
+        
+        Chunk(Work<T,R> work, List<T> items, int from, int to) {
+            this.work = work;
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+        
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            boolean outermost = RUNNING.get() == null;
+            RUNNING.set(Boolean.TRUE);
+            try {
+                result = work.run(items, from, to);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                if (outermost) {
+                    RUNNING.remove();
+                }
+                done.countDown();
+            }
+        }
+    }
+}
@@ -19,9 +19,10 @@
 package org.kowboy.temporal;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * This class implements a <tt>TimeLine</tt> that has mutually exlusive periods 
@@ -124,13 +125,16 @@ implements Cloneable, Serializable {
                 
         TimePeriod newTP = newData.getTimePeriod();
         
-        Date cutoff = Utils.addDays(newTP.getEndDate(), 1);
+        int cutoff = newTP.getEndDay() + 1;
 
-        Iterator it = iterator();
+        // Only the record in effect on the new start date can start before
+        // the new period and still overlap it, so begin the scan there.
+        TemporalData first = set.floor(newData);
+        Iterator it = first == null ? iterator() : tailIterator(first, true);
         while (it.hasNext()) {
             TemporalData old = (TemporalData) it.next();
             TimePeriod oldTP = old.getTimePeriod();
-            if (cutoff.before(oldTP.getStartDate())) {
+            if (cutoff < oldTP.getStartDay()) {
                 // The old record is beyond the new period. The rest
                 // of the records in the iterator will be too.
                 break;
@@ -144,7 +148,7 @@ implements Cloneable, Serializable {
                  * Old is a superset of new.
                  * If the data is the same, do nothing and return immediately.
                  */
-                if (old.equalsIgnorePeriod(newData)) {
+                if (equalsIgnorePeriod(old, newData)) {
                     return false; // we didn't add the new record.
                 }
                 
@@ -154,9 +158,9 @@ implements Cloneable, Serializable {
                 // No reason to continue iterating.
                 timeLineChanged = true;
                 break;
-            } else if (oldTP.contains(newTP.getStartDate())) {
+            } else if (oldTP.contains(newTP.getStartDay())) {
                 // Partial overlap at the beginning of the new record.
-                oldTP.setEndDate(Utils.addDays(newTP.getStartDate(), -1));
+                oldTP.setEndDay(newTP.getStartDay() - 1);
                 if (!oldTP.isValid()) {
                     it.remove(); // old record ends before it starts - not valid.
                 }
@@ -164,7 +168,7 @@ implements Cloneable, Serializable {
                 /* 
                  * Partial overlap at the end of the new time period. 
                  */
-                oldTP.setStartDate(Utils.addDays(newTP.getEndDate(), 1));
+                oldTP.setStartDay(newTP.getEndDay() + 1);
                 // If the time period of the old record is not valid, remove it.
                 if (!oldTP.isValid()) {
                     it.remove();
@@ -173,10 +177,150 @@ implements Cloneable, Serializable {
         }
 
         timeLineChanged = addData(newData) || timeLineChanged;
-        mergeAdjacent();
+        mergeAdjacent(newTP.getStartDay(), newTP.getEndDay());
         return timeLineChanged;
     }
 
+    /**
+     * Adds all of the records in the specified collection, one at a time in
+     * iteration order. When this timeline is empty and the records are 
+     * already in start date order, they are loaded in a single sweep with
+     * the same result, so loading a long history stays close to linear 
+     * instead of quadratic. Hibernate initializes timelines through this 
+     * method; map the collection with an <tt>order-by</tt> on the start 
+     * date column to get the single sweep.
+     *
+     * @param c The records to add.
+     * @return <tt>true</tt> if the timeline was modified.
+     */
+    @Override
+    public boolean addAll(Collection c) {
+        if (!isEmpty() || c.size() < 2 || !isSorted(c)) {
+            return super.addAll(c);
+        }
+        List<TemporalData> sorted = new ArrayList<TemporalData>(c.size());
+        for (Object obj : c) {
+            sorted.add((TemporalData) obj);
+        }
+        load(sorted);
+        return true;
+    }
+
+    /**
+     * @return <tt>true</tt> if the records are all non-null and in start
+     *      date order.
+     */
+    private static boolean isSorted(Collection c) {
+        int last = Integer.MIN_VALUE;
+        for (Object obj : c) {
+            if (obj == null || ((TemporalData) obj).getTimePeriod() == null) {
+                return false;
+            }
+            int start = ((TemporalData) obj).getTimePeriod().getStartDay();
+            if (start < last) {
+                return false;
+            }
+            last = start;
+        }
+        return true;
+    }
+
+    /**
+     * Loads records into this empty timeline. The same rules as 
+     * <tt>add(Object)</tt> are applied, but because the records arrive in 
+     * start date order, a new record can only overlap the last record loaded 
+     * and the tails left over from splitting earlier records.
+     *
+     * @param sorted The records to load, sorted by start date.
+     */
+    protected void load(List<TemporalData> sorted) {
+        List<TemporalData> loaded = new ArrayList<TemporalData>(sorted.size());
+        
+        // Tails of split records that start after the last loaded record,
+        // kept with the earliest one at the end of the list.
+        List<TemporalData> tails = new ArrayList<TemporalData>();
+        
+        for (TemporalData newData : sorted) {
+            TimePeriod newTP = newData.getTimePeriod();
+            
+            // Tails that start before the new record become regular records.
+            while (!tails.isEmpty() && tails.get(tails.size() - 1)
+                    .getTimePeriod().getStartDay() <= newTP.getStartDay()) {
+                loaded.add(tails.remove(tails.size() - 1));
+            }
+            
+            if (!loaded.isEmpty()) {
+                TemporalData old = loaded.get(loaded.size() - 1);
+                TimePeriod oldTP = old.getTimePeriod();
+                if (!newTP.intersects(oldTP)) {
+                    // No overlap.
+                } else if (newTP.contains(oldTP)) {
+                    // old is a subset of new.
+                    loaded.remove(loaded.size() - 1);
+                    saveIdentity(old);
+                } else if (oldTP.contains(newTP)) {
+                    // Old is a superset of new.
+                    if (equalsIgnorePeriod(old, newData)) {
+                        continue;
+                    }
+                    int oldEnd = oldTP.getEndDay();
+                    if (oldTP.getStartDay() < newTP.getStartDay()) {
+                        oldTP.setEndDay(newTP.getStartDay() - 1);
+                        if (oldEnd > newTP.getEndDay()) {
+                            TemporalData split = (TemporalData) old.cloneData(); // no ID
+                            split.setTimePeriod(new TimePeriod(newTP.getEndDay() + 1, oldEnd));
+                            tails.add(split);
+                        }
+                    } else {
+                        // Same start date, so the old record becomes the tail.
+                        loaded.remove(loaded.size() - 1);
+                        oldTP.setStartDay(newTP.getEndDay() + 1);
+                        tails.add(old);
+                    }
+                } else {
+                    // Partial overlap at the beginning of the new record.
+                    oldTP.setEndDay(newTP.getStartDay() - 1);
+                }
+            }
+            
+            // Truncate or remove the tails that the new record overlaps.
+            while (!tails.isEmpty()) {
+                TemporalData tail = tails.get(tails.size() - 1);
+                TimePeriod tailTP = tail.getTimePeriod();
+                if (tailTP.getStartDay() > newTP.getEndDay()) {
+                    break;
+                } else if (tailTP.getEndDay() <= newTP.getEndDay()) {
+                    tails.remove(tails.size() - 1);
+                    saveIdentity(tail);
+                } else {
+                    tailTP.setStartDay(newTP.getEndDay() + 1);
+                    break;
+                }
+            }
+            loaded.add(newData);
+        }
+        for (int i = tails.size() - 1; i >= 0; i--) {
+            loaded.add(tails.get(i));
+        }
+        
+        // Merge adjacent records with equal data, then insert.
+        TemporalData last = null;
+        for (TemporalData current : loaded) {
+            if (last != null
+                    && last.getTimePeriod().isAdjacentTo(current.getTimePeriod())
+                    && equalsIgnorePeriod(last, current)) {
+                saveIdentity(current);
+                last.getTimePeriod().setEndDay(current.getTimePeriod().getEndDay());
+                continue;
+            }
+            if (last != null) {
+                addData(last);
+            }
+            last = current;
+        }
+        addData(last);
+    }
+    
     /**
      * Split an existing record. This method may add a record to the 
      * TimeLine, so be careful if there are any active iterators. They
@@ -189,8 +333,8 @@ implements Cloneable, Serializable {
         // Create three adjacent records.
         TimePeriod split1 = new TimePeriod(old.getTimePeriod());
         TimePeriod split2 = new TimePeriod(old.getTimePeriod());
-        split1.setEndDate(Utils.addDays(newTP.getStartDate(), -1));
-        split2.setStartDate(Utils.addDays(newTP.getEndDate(), 1));
+        split1.setEndDay(newTP.getStartDay() - 1);
+        split2.setStartDay(newTP.getEndDay() + 1);
                         
         // check for valid date ranges.
         if (split1.isValid()) {
@@ -235,19 +379,21 @@ implements Cloneable, Serializable {
             } else if (data.getTimePeriod().contains(clearPeriod)) {
                 // split record.
                 TemporalData split = (TemporalData) data.cloneData();
-                data.getTimePeriod().setEndDate(Utils.addDays(clearPeriod.getStartDate(), -1));
+                data.getTimePeriod().setEndDay(clearPeriod.getStartDay() - 1);
                 if (!data.getTimePeriod().isValid()) {
                     it.remove();
                 }
-                split.getTimePeriod().setStartDate(Utils.addDays(clearPeriod.getEndDate(), 1));
+                split.getTimePeriod().setStartDay(clearPeriod.getEndDay() + 1);
                 if (split.getTimePeriod().isValid()) {
                     add(split);
                     return;
                 }
-            } else if (clearPeriod.contains(data.getTimePeriod().getStartDate())) {
-                data.getTimePeriod().setStartDate(Utils.addDays(clearPeriod.getEndDate(), 1));
-            } else if (clearPeriod.contains(data.getTimePeriod().getEndDate())) {
-                data.getTimePeriod().setEndDate(Utils.addDays(clearPeriod.getStartDate(), -1));
+            } else if (clearPeriod.contains(data.getTimePeriod().getStartDay())) {
+                data.getTimePeriod().setStartDay(clearPeriod.getEndDay() + 1);
+                modCount++;
+            } else if (clearPeriod.contains(data.getTimePeriod().getEndDay())) {
+                data.getTimePeriod().setEndDay(clearPeriod.getStartDay() - 1);
+                modCount++;
             }
             
             if (!data.getTimePeriod().isValid()) {
@@ -20,7 +20,7 @@ package org.kowboy.temporal;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 
 /**
  * This class implements a <tt>TimeLine</tt> that has periods with starting
@@ -99,24 +99,38 @@ public class PerpetualTimeline extends PeriodOfExistenceTimeLine implements Seri
             }
         }
         
-        // Fill gaps in the timeline.
-        Iterator<TemporalData> it = iterator();
-        TemporalData previous = it.next();
-        TemporalData next = previous;
-        while (it.hasNext()) {
-            next = it.next();
-            if (!previous.getTimePeriod().isAdjacentTo(next.getTimePeriod())) {
-                previous.getTimePeriod().setEndDate(
-                        Utils.addDays(next.getTimePeriod().getStartDate(), -1));
-            }
-            previous = next;
+        /*
+         * The timeline had no gaps before, so only the neighbours of the new
+         * record can need repair. Close any gap before it, and run it up to
+         * the next record, or to the end of time if it is now the last one.
+         */
+        TemporalData added = getAsOf(newData.getTimePeriod().getStartDay());
+        TimePeriod addedTP = added.getTimePeriod();
+        TemporalData previous = set.lower(added);
+        if (previous != null && !previous.getTimePeriod().isAdjacentTo(addedTP)) {
+            previous.getTimePeriod().setEndDay(addedTP.getStartDay() - 1);
         }
-        next.getTimePeriod().setEndDate(TimePeriod.END_OF_TIME);
-        mergeAdjacent();
+        TemporalData next = set.higher(added);
+        addedTP.setEndDay(next == null ? TimePeriod.END_OF_TIME_DAY
+                : next.getTimePeriod().getStartDay() - 1);
+        mergeAdjacent(addedTP.getStartDay(), addedTP.getEndDay());
 
         return changed;
     }
 
+    /**
+     * Loads records into this empty timeline. The first record runs to the
+     * end of time until later records truncate it, just as it would if the
+     * records were added one at a time.
+     *
+     * @param sorted The records to load, sorted by start date.
+     */
+    @Override
+    protected void load(List<TemporalData> sorted) {
+        sorted.get(0).getTimePeriod().setEndDay(TimePeriod.END_OF_TIME_DAY);
+        super.load(sorted);
+    }
+
     /**
      * Create a new TimeLine isntance.
      *
@@ -0,0 +1,289 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.beanutils.PropertyUtils;
+
+/**
+ * Getter and setter for a simple property of one class, looked up once and
+ * cached. <tt>PropertyUtils</tt> introspects the bean and resolves the
+ * property name on every call; timelines read and write the same few
+ * properties of the same few classes over and over, so the methods are
+ * resolved once per (class, property) and invoked directly after that.<p>
+ *
+ * Nested, indexed and mapped property names, and properties the
+ * <tt>Introspector</tt> can not find a method for, are still handled by
+ * <tt>PropertyUtils</tt>, along with its error reporting.<p>
+ *
+ * Like the <tt>PropertyDescriptor</tt>s that beanutils caches, the cache
+ * does not keep classes loaded: classes are weak keys, and an accessor
+ * holds its class weakly and its methods softly, resolving them again if
+ * they have been cleared. Looking up a cached accessor takes no lock.
+ */
+final class PropertyAccessor {
+    static final ConcurrentMap<ClassKey, ConcurrentMap<String, PropertyAccessor>> CACHE =
+        new ConcurrentHashMap<ClassKey, ConcurrentMap<String, PropertyAccessor>>();
+
+    // Keys of collected classes, removed from the cache on the next miss.
+    private static final ReferenceQueue<Class<?>> COLLECTED = new ReferenceQueue<Class<?>>();
+
+    private static final Method[] NONE = new Method[2];
+
+    private final String name;
+    final Reference<Class<?>> type;
+    // The getter and setter, either of which may be null, in which case
+    // PropertyUtils is used. The reference itself is null for names that
+    // PropertyUtils always handles.
+    volatile Reference<Method[]> methods;
+
+    private PropertyAccessor(Class<?> type, String name, Method[] methods) {
+        this.name = name;
+        this.type = new WeakReference<Class<?>>(type);
+        this.methods = methods == null ? null : new SoftReference<Method[]>(methods);
+    }
+
+    /**
+     * Gets a property value from a bean.
+     *
+     * @param bean The bean to read.
+     * @param prop The property name.
+     * @return The property value.
+     */
+    static Object get(Object bean, String prop) {
+        return forProperty(bean.getClass(), prop).get(bean);
+    }
+
+    /**
+     * Sets a property value on a bean.
+     *
+     * @param bean The bean to modify.
+     * @param prop The property name.
+     * @param value The new value.
+     */
+    static void set(Object bean, String prop, Object value) {
+        forProperty(bean.getClass(), prop).set(bean, value);
+    }
+
+    /**
+     * Gets the cached accessor for a property, creating it on first use.
+     * Two threads may both create one; either result is correct.
+     */
+    static PropertyAccessor forProperty(Class<?> type, String prop) {
+        ConcurrentMap<String, PropertyAccessor> accessors = CACHE.get(new ClassKey(type, null));
+        if (accessors == null) {
+            expunge();
+            ConcurrentMap<String, PropertyAccessor> created = 
+                new ConcurrentHashMap<String, PropertyAccessor>();
+            accessors = CACHE.putIfAbsent(new ClassKey(type, COLLECTED), created);
+            if (accessors == null) {
+                accessors = created;
+            }
+        }
+        PropertyAccessor accessor = accessors.get(prop);
+        if (accessor == null) {
+            accessor = create(type, prop);
+            accessors.put(prop, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Gets the property value from a bean of the class this accessor was
+     * created for, or a subclass.
+     *
+     * @param bean The bean to read.
+     * @return The property value.
+     */
+    Object get(Object bean) throws TemporalPropertyException {
+        try {
+            Method getter = methods()[0];
+            if (getter == null) {
+                return PropertyUtils.getProperty(bean, name);
+            }
+            return getter.invoke(bean);
+        } catch (IllegalAccessException e) {
+            throw new TemporalPropertyException("Can not access property " + name, e);
+        } catch (InvocationTargetException e) {
+            throw new TemporalPropertyException("Can not invoke property getter for " + name, e);
+        } catch (NoSuchMethodException e) {
+            throw new TemporalPropertyException("No getter method for property " + name, e);
+        }
+    }
+
+    /**
+     * Sets the property value on a bean of the class this accessor was
+     * created for, or a subclass.
+     *
+     * @param bean The bean to modify.
+     * @param value The new value.
+     */
+    void set(Object bean, Object value) throws TemporalPropertyException {
+        try {
+            Method setter = methods()[1];
+            if (setter == null) {
+                PropertyUtils.setProperty(bean, name, value);
+            } else {
+                setter.invoke(bean, value);
+            }
+        } catch (IllegalAccessException e) {
+            throw new TemporalPropertyException("Can not access property " + name, e);
+        } catch (InvocationTargetException e) {
+            throw new TemporalPropertyException("Can not invoke property setter for " + name, e);
+        } catch (NoSuchMethodException e) {
+            throw new TemporalPropertyException("No setter method for property " + name, e);
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if both methods were resolved, so
+     *      <tt>PropertyUtils</tt> is never called for this property.
+     */
+    boolean isResolved() {
+        Method[] m = methods();
+        return m[0] != null && m[1] != null;
+    }
+
+    /**
+     * @return The return type of the resolved getter, or <tt>null</tt> if
+     *      the getter was not resolved.
+     */
+    Class<?> getPropertyType() {
+        Method getter = methods()[0];
+        return getter == null ? null : getter.getReturnType();
+    }
+
+    /**
+     * @return The getter and setter, resolved again if they were cleared.
+     */
+    private Method[] methods() {
+        Reference<Method[]> ref = methods;
+        if (ref == null) {
+            return NONE;
+        }
+        Method[] m = ref.get();
+        if (m == null) {
+            Class<?> c = type.get();
+            // Without the class there can be no beans to call them on.
+            m = c == null ? NONE : resolve(c, name);
+            methods = new SoftReference<Method[]>(m);
+        }
+        return m;
+    }
+
+    /**
+     * Removes the entries of classes that have been collected.
+     */
+    private static void expunge() {
+        Reference<? extends Class<?>> key;
+        while ((key = COLLECTED.poll()) != null) {
+            CACHE.remove(key);
+        }
+    }
+
+    private static PropertyAccessor create(Class<?> type, String prop) {
+        if (prop.length() == 0 || prop.indexOf('.') >= 0 || prop.indexOf('[') >= 0
+                || prop.indexOf('(') >= 0) {
+            return new PropertyAccessor(type, prop, null);
+        }
+        return new PropertyAccessor(type, prop, resolve(type, prop));
+    }
+
+    /**
+     * @return The getter and setter of a simple property, either of which
+     *      may be null.
+     */
+    private static Method[] resolve(Class<?> type, String prop) {
+        try {
+            PropertyDescriptor[] descriptors =
+                Introspector.getBeanInfo(type).getPropertyDescriptors();
+            for (int i = 0; i < descriptors.length; i++) {
+                if (prop.equals(descriptors[i].getName())) {
+                    return new Method[] {accessible(descriptors[i].getReadMethod()),
+                            accessible(descriptors[i].getWriteMethod())};
+                }
+            }
+        } catch (IntrospectionException e) {
+            // Leave it to PropertyUtils.
+        }
+        return NONE;
+    }
+
+    /**
+     * Makes a method callable even when it is declared by a class that is
+     * not public, as beanutils does.
+     *
+     * @return The method, or null if it can not be made accessible.
+     */
+    private static Method accessible(Method method) {
+        if (method == null) {
+            return null;
+        }
+        if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            try {
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                return null;
+            }
+        }
+        return method;
+    }
+
+    /**
+     * Weak cache key that compares classes by identity. A key whose class
+     * has been collected is only equal to itself.
+     */
+    static final class ClassKey extends WeakReference<Class<?>> {
+        private final int hash;
+
+        ClassKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+            super(type, queue);
+            this.hash = System.identityHashCode(type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof ClassKey)) {
+                return false;
+            }
+            Class<?> type = get();
+            return type != null && type == ((ClassKey) o).get();
+        }
+    }
+}
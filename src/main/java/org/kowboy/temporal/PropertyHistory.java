@@ -0,0 +1,154 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+
+/**
+ * The history of a single property of a TimeLine, as runs of equal values.
+ * Adjacent records with equal values for the property form one run, even
+ * when their other properties differ, so a "salary history" shows only the
+ * changes of salary. A gap in the timeline ends a run.<p>
+ *
+ * A history is a snapshot: it does not change when the timeline does.
+ *
+ * @see TimeLine#getPropertyHistory(String)
+ */
+public final class PropertyHistory {
+    private final String property;
+    private final int[] startDays;
+    private final int[] endDays;
+    private final Object[] values;
+
+    private PropertyHistory(String property, int[] startDays, int[] endDays, Object[] values) {
+        this.property = property;
+        this.startDays = startDays;
+        this.endDays = endDays;
+        this.values = values;
+    }
+
+    /**
+     * Builds the history of a property from records in start date order.
+     *
+     * @param records The records.
+     * @param property The property name.
+     * @return The history.
+     */
+    static PropertyHistory build(Iterator<TemporalData> records, String property) {
+        int[] startDays = new int[8];
+        int[] endDays = new int[8];
+        Object[] values = new Object[8];
+        int size = 0;
+        while (records.hasNext()) {
+            TemporalData data = records.next();
+            TimePeriod p = data.getTimePeriod();
+            Object value = PropertyAccessor.get(data, property);
+            if (size > 0 && endDays[size - 1] + 1 == p.getStartDay()
+                    && Utils.nullSafeEquals(values[size - 1], value)) {
+                endDays[size - 1] = p.getEndDay();
+                continue;
+            }
+            if (size == startDays.length) {
+                startDays = Arrays.copyOf(startDays, size * 2);
+                endDays = Arrays.copyOf(endDays, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            startDays[size] = p.getStartDay();
+            endDays[size] = p.getEndDay();
+            values[size] = value;
+            size++;
+        }
+        return new PropertyHistory(property, Arrays.copyOf(startDays, size),
+                Arrays.copyOf(endDays, size), Arrays.copyOf(values, size));
+    }
+
+    /**
+     * @return The property name.
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return The number of runs.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Gets the period of a run.
+     *
+     * @param index The index of the run, in start date order.
+     * @return A new TimePeriod for the run.
+     */
+    public TimePeriod getTimePeriod(int index) {
+        return new TimePeriod(startDays[index], endDays[index]);
+    }
+
+    /**
+     * Gets the property value of a run.
+     *
+     * @param index The index of the run, in start date order.
+     * @return The property value.
+     */
+    public Object getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Finds the run in effect on the specified date.
+     *
+     * @param asOf The effective date.
+     * @return The index of the run, or -1 if there is none.
+     */
+    public int indexOf(Date asOf) {
+        int day = asOf == null ? TimePeriod.END_OF_TIME_DAY : Utils.toEpochDay(asOf);
+        int i = Arrays.binarySearch(startDays, day);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i >= 0 && endDays[i] >= day ? i : -1;
+    }
+
+    /**
+     * Gets the property value in effect on the specified date.
+     *
+     * @param asOf The effective date.
+     * @return The property value, or null if there is no run for the date.
+     */
+    public Object getValueAsOf(Date asOf) {
+        int i = indexOf(asOf);
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(property).append(": [");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(getTimePeriod(i)).append('=').append(values[i]);
+        }
+        return b.append(']').toString();
+    }
+}
@@ -41,7 +41,8 @@ public class StartDateComparator implements Comparator<TemporalData>, Serializab
             throw new IllegalArgumentException
                 ("Can not compare null object references");
         }
-        return d1.getTimePeriod().getStartDate()
-            .compareTo(d2.getTimePeriod().getStartDate());
+        int start1 = d1.getTimePeriod().getStartDay();
+        int start2 = d2.getTimePeriod().getStartDay();
+        return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
     }
 }
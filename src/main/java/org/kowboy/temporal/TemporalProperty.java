@@ -0,0 +1,167 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+/**
+ * A typed handle on a property of a TemporalData class, for use with
+ * <tt>TimeLine.get</tt> and <tt>TimeLine.set</tt> in place of property
+ * names. A handle is created once, typically as a constant, and calls the
+ * record's getter and setter directly:
+ *
+ * <pre>
+ * public static final TemporalProperty&lt;PhoneNumber,Integer&gt; AREA_CODE =
+ *     new TemporalProperty&lt;PhoneNumber,Integer&gt;("areaCode") {
+ *         public Integer get(PhoneNumber data) {
+ *             return data.getAreaCode();
+ *         }
+ *         public void set(PhoneNumber data, Integer value) {
+ *             data.setAreaCode(value);
+ *         }
+ *     };
+ * </pre>
+ *
+ * <tt>forName</tt> creates a handle from a property name instead, resolving
+ * the property's methods once.
+ *
+ * @param <D> The type of record holding the property.
+ * @param <V> The type of the property value.
+ */
+public abstract class TemporalProperty<D extends TemporalData, V> {
+    private final String name;
+
+    /**
+     * @param name The property name, used in messages.
+     */
+    protected TemporalProperty(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a handle for a JavaBean property of a record class.
+     *
+     * @param type The record class.
+     * @param name The property name.
+     * @param valueType The property type, or a supertype of it. Use the
+     *      wrapper class for primitive properties.
+     * @return A handle on the property.
+     * @throws TemporalPropertyException If the property's getter returns
+     *      values that are not of <tt>valueType</tt>.
+     */
+    public static <D extends TemporalData, V> TemporalProperty<D,V> forName(
+            Class<D> type, String name, Class<V> valueType) throws TemporalPropertyException {
+        PropertyAccessor accessor = PropertyAccessor.forProperty(type, name);
+        Class<?> propertyType = accessor.getPropertyType();
+        if (propertyType != null && !wrapper(valueType).isAssignableFrom(wrapper(propertyType))) {
+            throw new TemporalPropertyException("Property " + name + " of " + type.getName()
+                    + " is of type " + propertyType.getName() + ", not " + valueType.getName());
+        }
+        return new BeanProperty<D,V>(name, accessor);
+    }
+
+    /**
+     * Reads a JavaBean property of a record the way timelines do, through
+     * the same cached methods as <tt>forName</tt> handles.
+     *
+     * @param data The record.
+     * @param name The property name.
+     * @return The property value.
+     */
+    public static Object getValue(TemporalData data, String name) 
+            throws TemporalPropertyException {
+        return PropertyAccessor.get(data, name);
+    }
+
+    /**
+     * @return The property name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the property value from a record.
+     *
+     * @param data The record.
+     * @return The property value.
+     */
+    public abstract V get(D data);
+
+    /**
+     * Sets the property value on a record.
+     *
+     * @param data The record.
+     * @param value The new value.
+     */
+    public abstract void set(D data, V value);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * @return The wrapper class of a primitive type, or the type itself.
+     */
+    private static Class<?> wrapper(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == Integer.TYPE) {
+            return Integer.class;
+        } else if (type == Long.TYPE) {
+            return Long.class;
+        } else if (type == Boolean.TYPE) {
+            return Boolean.class;
+        } else if (type == Double.TYPE) {
+            return Double.class;
+        } else if (type == Float.TYPE) {
+            return Float.class;
+        } else if (type == Short.TYPE) {
+            return Short.class;
+        } else if (type == Byte.TYPE) {
+            return Byte.class;
+        } else if (type == Character.TYPE) {
+            return Character.class;
+        }
+        return Void.class;
+    }
+
+    /**
+     * Property handle that goes through a cached <tt>PropertyAccessor</tt>.
+     */
+    private static final class BeanProperty<D extends TemporalData, V>
+    extends TemporalProperty<D,V> {
+        private final PropertyAccessor accessor;
+
+        BeanProperty(String name, PropertyAccessor accessor) {
+            super(name);
+            this.accessor = accessor;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(D data) {
+            return (V) accessor.get(data);
+        }
+
+        @Override
+        public void set(D data, V value) {
+            accessor.set(data, value);
+        }
+    }
+}
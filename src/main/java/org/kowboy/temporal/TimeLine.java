@@ -19,6 +19,7 @@
 package org.kowboy.temporal;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -35,10 +36,61 @@ public interface TimeLine extends Set {
      */
     TemporalData getAsOf(Date asOf);
     
+    /**
+     * Gets the records effective as of each of the specified dates. This is
+     * done in a single pass when the dates are in ascending order, which is
+     * much faster than calling <tt>getAsOf(Date)</tt> for each date.
+     * 
+     * @param asOf The effective dates to search for.
+     * @return An array aligned with <tt>asOf</tt>, holding the effective
+     *      record for each date, or null where there is none.
+     */
+    TemporalData[] getAsOfAll(Date[] asOf);
+    
+    /**
+     * Gets the last record that ends before the specified date. If there
+     * is a record effective on the date, this is the record preceding it.
+     * 
+     * @param date The date to search from.
+     * @return The preceding record, or null if there is none.
+     */
+    TemporalData getBefore(Date date);
+    
+    /**
+     * Gets the first record that starts after the specified date.
+     * 
+     * @param date The date to search from.
+     * @return The following record, or null if there is none.
+     */
+    TemporalData getAfter(Date date);
+    
+    /**
+     * Gets the earliest record in this TimeLine.
+     * 
+     * @return The first record, or null if the timeline is empty.
+     */
+    TemporalData getFirst();
+    
+    /**
+     * Gets the latest record in this TimeLine.
+     * 
+     * @return The last record, or null if the timeline is empty.
+     */
+    TemporalData getLast();
+    
+    /**
+     * Creates a cursor for as-of lookups over consecutive dates, which is
+     * faster than repeated calls to <tt>getAsOf(Date)</tt>.
+     * 
+     * @return A new cursor positioned before the first record.
+     */
+    TimeLineCursor cursor();
+    
     /**
      * Get a TimeLine of records that are effective during the
      * specified time period. This includes records that overlap
-     * the start and end dates of the provided time period.
+     * the start and end dates of the provided time period. The result
+     * is a read-only view backed by this TimeLine.
      * 
      * @param timePeriod The range of dates to search for effective records.
      * @return A TimeLine of the effective records for the specified date.
@@ -47,7 +99,8 @@ public interface TimeLine extends Set {
     
     /**
      * Get a TimeLine of records that are completely contained within
-     * the specified time period.
+     * the specified time period. The result is a read-only view backed
+     * by this TimeLine.
      * 
      * @param timePeriod The maximum date range of the new TimeLine.
      * @return A new TimeLine.
@@ -67,6 +120,17 @@ public interface TimeLine extends Set {
      */
     void setProperty(String prop, TimePeriod period, Object value, TemporalDataFactory factory);
     
+    /**
+     * Sets several temporal data properties for the same period, with the
+     * same result as calling <tt>setProperty</tt> for each entry in the
+     * order of the map.
+     * 
+     * @param values the property values, by property name.
+     * @param period the TimePeriod for the properties.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    void setProperties(Map<String,?> values, TimePeriod period, TemporalDataFactory factory);
+    
     /**
      * Gets the value of a temporal property for a specified effective date.
      *  
@@ -75,6 +139,37 @@ public interface TimeLine extends Set {
      * @return the property value at the specified effective date.
      */
     Object getProperty(String prop, Date asOf);
+    
+    /**
+     * Sets a temporal data property through a typed property handle, as
+     * <tt>setProperty</tt> does for a property name.
+     * 
+     * @param property the property to set.
+     * @param period the TimePeriod for the property.
+     * @param value the value of the property.
+     * @param factory a factory for creating the appropriate TemporalData objects.
+     */
+    <D extends TemporalData, V> void set(TemporalProperty<D,V> property, TimePeriod period,
+            V value, TemporalDataFactory factory);
+    
+    /**
+     * Gets the value of a temporal property for a specified effective date,
+     * through a typed property handle.
+     *  
+     * @param property the property to get.
+     * @param asOf the effective date.
+     * @return the property value at the specified effective date.
+     */
+    <D extends TemporalData, V> V get(TemporalProperty<D,V> property, Date asOf);
+    
+    /**
+     * Gets the history of a property, coalescing adjacent records with 
+     * equal values for it even when their other properties differ.
+     * 
+     * @param prop the name of the property.
+     * @return The history of the property.
+     */
+    PropertyHistory getPropertyHistory(String prop);
 
     /**
      * Creates a "gap" in the timeline(s). This can be used to terminate records
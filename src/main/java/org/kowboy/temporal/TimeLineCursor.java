@@ -0,0 +1,55 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.util.Date;
+
+/**
+ * A stateful as-of lookup over a single TimeLine. The cursor remembers the
+ * record it found last and moves forward from there, so a sweep over
+ * consecutive dates visits each record once instead of searching the
+ * timeline for every date.<p>
+ * 
+ * Cursors are cheap to create and are not thread-safe; use one per sweep.
+ * They stay valid when the timeline is modified, at the cost of one new
+ * search after the modification.
+ * 
+ * @see TimeLine#cursor()
+ */
+public interface TimeLineCursor {
+
+    /**
+     * A cursor over an empty timeline.
+     */
+    public static final TimeLineCursor EMPTY = new TimeLineCursor() {
+        public TemporalData getAsOf(Date asOf) {
+            return null;
+        }
+    };
+
+    /**
+     * Moves the cursor to the specified date and gets the record that was
+     * effective as of that date.
+     * 
+     * @param asOf The effective date to search for.
+     * @return A TemporalData record for the effective date, or null if
+     *      there is no record for this date.
+     */
+    TemporalData getAsOf(Date asOf);
+}
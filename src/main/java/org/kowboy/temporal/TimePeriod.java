@@ -27,6 +27,11 @@ import java.util.Date;
  * This interface represents a span of time. An object that implements
  * this interface is considered "temporal".<p>
  * 
+ * Time periods have a granularity of one day. The start and end dates are
+ * held as epoch days (days since 1970-01-01 in the default time zone), so
+ * comparisons between periods are simple integer comparisons. The
+ * <tt>Date</tt> accessors convert to and from this representation.<p>
+ * 
  * Implementing classes should override <tt>equals()</tt> and maybe 
  * <tt>hashCode()</tt> from <tt>java.lang.Object</tt>.
  * 
@@ -34,9 +39,9 @@ import java.util.Date;
  * @see Object#hashCode()
  */
 public class TimePeriod implements Cloneable, Serializable {
-    private static final long serialVersionUID = 4308047380462786611L;
-    private Date startDate;
-    private Date endDate;
+    private static final long serialVersionUID = -2870328616381212513L;
+    private int startDay;
+    private int endDay;
     
     /**
      * The Date 9999-12-31. This will be used in place of a null date value.
@@ -44,6 +49,11 @@ public class TimePeriod implements Cloneable, Serializable {
      * rather than null. 
      */
     public static final Date END_OF_TIME = Utils.newDate(9999, 12, 31);
+    
+    /**
+     * The epoch day of <tt>END_OF_TIME</tt>.
+     */
+    public static final int END_OF_TIME_DAY = Utils.toEpochDay(END_OF_TIME);
 
     /**
      * The string format for parseable dates.
@@ -79,6 +89,17 @@ public class TimePeriod implements Cloneable, Serializable {
         setEndDate(end);
     }
     
+    /**
+     * Creates a TimePeriod with the specified start and end epoch days.
+     * 
+     * @param startDay The first day of the time period.
+     * @param endDay The last day of the time period.
+     */
+    public TimePeriod(int startDay, int endDay) {
+        this.startDay = startDay;
+        this.endDay = endDay;
+    }
+    
     /**
      * Creates a TimePeriod with the specified start and end dates.
      * The string parameters are parsed and expected to be in the 
@@ -99,15 +120,15 @@ public class TimePeriod implements Cloneable, Serializable {
      * @param period The timeperiod to copy from.
      */
     public TimePeriod(TimePeriod period) {
-    	this.startDate = period.getStartDate();
-    	this.endDate = period.getEndDate();
+    	this.startDay = period.startDay;
+    	this.endDay = period.endDay;
     }
 
 	/**
      * @return Returns the endDate.
      */
     public Date getEndDate() {
-        return endDate;
+        return Utils.fromEpochDay(endDay);
     }
     
     /**
@@ -117,12 +138,7 @@ public class TimePeriod implements Cloneable, Serializable {
      * @param endDate The endDate to set.
      */
     public void setEndDate(Date endDate) {
-        if (endDate == null) {
-            this.endDate = END_OF_TIME;
-        } else {
-            //HACK To avoid TimeStamp comparison issue.
-            this.endDate = new Date(endDate.getTime());
-        }
+        this.endDay = toDay(endDate);
     }
 
     /**
@@ -133,18 +149,28 @@ public class TimePeriod implements Cloneable, Serializable {
      * @throws ParseException If the parameter is not parseable.
      */
     public void setEndDate(String endDate) throws ParseException {
-        if (endDate.equalsIgnoreCase("undefined")) {
-            this.endDate = END_OF_TIME;
-        } else {
-            this.endDate = new SimpleDateFormat(DATE_FORMAT).parse(endDate);
-        }
+        this.endDay = toDay(endDate);
+    }
+    
+    /**
+     * @return The end date as an epoch day.
+     */
+    public int getEndDay() {
+        return endDay;
+    }
+    
+    /**
+     * @param endDay The end date as an epoch day.
+     */
+    public void setEndDay(int endDay) {
+        this.endDay = endDay;
     }
     
     /**
      * @return Returns the startDate.
      */
     public Date getStartDate() {
-        return startDate;
+        return Utils.fromEpochDay(startDay);
     }
     
     /**
@@ -154,12 +180,7 @@ public class TimePeriod implements Cloneable, Serializable {
      * @param startDate The startDate to set.
      */
     public void setStartDate(Date startDate) {
-        if (startDate == null) {
-            this.startDate = END_OF_TIME;
-        } else {
-            // HACK To avoid TimeStamp comparison issue. 
-            this.startDate = new Date(startDate.getTime());
-        }
+        this.startDay = toDay(startDate);
     }
     
     /**
@@ -170,11 +191,32 @@ public class TimePeriod implements Cloneable, Serializable {
      * @throws ParseException 
      */
     public void setStartDate(String startDate) throws ParseException {
-        if (startDate.equalsIgnoreCase("undefined")) {
-            this.startDate = END_OF_TIME;
-        } else {
-            this.startDate = new SimpleDateFormat(DATE_FORMAT).parse(startDate);
+        this.startDay = toDay(startDate);
+    }
+    
+    /**
+     * @return The start date as an epoch day.
+     */
+    public int getStartDay() {
+        return startDay;
+    }
+    
+    /**
+     * @param startDay The start date as an epoch day.
+     */
+    public void setStartDay(int startDay) {
+        this.startDay = startDay;
+    }
+    
+    private static int toDay(Date d) {
+        return d == null ? END_OF_TIME_DAY : Utils.toEpochDay(d);
+    }
+    
+    private static int toDay(String d) throws ParseException {
+        if (d.equalsIgnoreCase("undefined")) {
+            return END_OF_TIME_DAY;
         }
+        return Utils.toEpochDay(new SimpleDateFormat(DATE_FORMAT).parse(d));
     }
     
     /**
@@ -188,11 +230,21 @@ public class TimePeriod implements Cloneable, Serializable {
     public boolean contains(final Date d) {
         if (d == null) {
             // null date should be considered end of time.
-            return endDate.equals(END_OF_TIME);
+            return endDay == END_OF_TIME_DAY;
         }
-        
-        return (startDate.getTime() <= d.getTime() 
-                && endDate.getTime() >= d.getTime());
+        return contains(Utils.toEpochDay(d));
+    }
+    
+    /**
+     * Determines if the specified epoch day is within this time period
+     * (inclusive).
+     * 
+     * @param day The epoch day to test.
+     * @return <tt>true</tt> if day is within this time period (inclusive),
+     *      <tt>false</tt> otherwise.
+     */
+    public boolean contains(final int day) {
+        return startDay <= day && day <= endDay;
     }
     
     /**
@@ -204,7 +256,7 @@ public class TimePeriod implements Cloneable, Serializable {
      *      <tt>false</tt> otherwise.
      */
     public boolean contains(final TimePeriod p) {
-        return (this.contains(p.getStartDate()) && this.contains(p.getEndDate()));
+        return contains(p.startDay) && contains(p.endDay);
     }
     
     /**
@@ -221,10 +273,7 @@ public class TimePeriod implements Cloneable, Serializable {
         }
         
         TimePeriod tp = (TimePeriod) o;
-        return (this.startDate == tp.startDate  // handles null values
-                || this.startDate.equals(tp.startDate))
-                && (this.endDate == tp.endDate  // handles null values
-                        || this.endDate.equals(tp.endDate));
+        return this.startDay == tp.startDay && this.endDay == tp.endDay;
     }
     
     /**
@@ -232,7 +281,7 @@ public class TimePeriod implements Cloneable, Serializable {
      * @return the hashCode value.
      */
     public int hashCode() {
-        return startDate.hashCode() * endDate.hashCode() % Integer.MAX_VALUE;
+        return 31 * startDay + endDay;
     }
     
     
@@ -242,7 +291,7 @@ public class TimePeriod implements Cloneable, Serializable {
      * @return True if startDate <= endDate, false otherwise.
      */
     public boolean isValid() {
-        return startDate.compareTo(endDate) <= 0;
+        return startDay <= endDay;
     }
     
     /**
@@ -268,7 +317,7 @@ public class TimePeriod implements Cloneable, Serializable {
      */
     public String toString() {
         SimpleDateFormat df = new SimpleDateFormat(DATE_FORMAT);
-        return df.format(startDate) + " TO " + df.format(endDate);
+        return df.format(getStartDate()) + " TO " + df.format(getEndDate());
     }
 
     /**
@@ -279,24 +328,19 @@ public class TimePeriod implements Cloneable, Serializable {
      *      for one day, false otherwise.
      */
     public boolean intersects(final TimePeriod timePeriod) {
-        return contains(timePeriod.startDate) 
-            || contains(timePeriod.endDate) 
-            || timePeriod.contains(startDate)
-            || timePeriod.contains(endDate);
+        return startDay <= timePeriod.endDay && timePeriod.startDay <= endDay;
     }
 
     /**
-     * Tests whether the specified time period is adjacent to this time period.
-     * This is simply a wrapper around Utils.isOneDayBefore(), but for TimePeriods
-     * instead of individual dates.
+     * Tests whether the specified time period is adjacent to this time period,
+     * meaning one of them starts the day after the other one ends.
      * 
      * @param tp The time period to compare to.
      * @return <tt>true</tt> if the specified time period is adjacent to this one, 
      *      <tt>false</tt> otherwise.
      */
     public boolean isAdjacentTo(final TimePeriod tp) {
-        return Utils.isOneDayBefore(endDate, tp.getStartDate())
-            || Utils.isOneDayBefore(tp.getEndDate(), startDate);
+        return endDay + 1 == tp.startDay || tp.endDay + 1 == startDay;
     }
     
     /**
@@ -309,13 +353,7 @@ public class TimePeriod implements Cloneable, Serializable {
      * @return The merged TimePeriod.
      */
     public TimePeriod merge(final TimePeriod tp) {
-        TimePeriod mergedPeriod = (TimePeriod) tp.clone();
-        if (startDate.before(mergedPeriod.getStartDate())) {
-            mergedPeriod.setStartDate(startDate);
-        }
-        if (endDate.after(mergedPeriod.getEndDate())) {
-            mergedPeriod.setEndDate(endDate);
-        }
-        return mergedPeriod;
+        return new TimePeriod(Math.min(startDay, tp.startDay),
+                Math.max(endDay, tp.endDay));
     }
 }
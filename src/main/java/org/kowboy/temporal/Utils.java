@@ -21,11 +21,59 @@ package org.kowboy.temporal;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.TimeZone;
 
+/**
+ * Static helpers for dates and objects.<p>
+ * 
+ * Date arithmetic works on epoch days (days since 1970-01-01) in the default
+ * time zone, without <tt>Calendar</tt>. The default zone is read once and
+ * cached along with its offsets; call {@link #resetTimeZone()} after
+ * changing it with <tt>TimeZone.setDefault</tt>. Dates before the
+ * Gregorian cutover (1582-10-15) fall back to <tt>Calendar</tt> so that
+ * results stay consistent with it.
+ */
 public class Utils {
 
+    private static final long MILLIS_PER_DAY = ZoneOffsets.MILLIS_PER_DAY;
+    
+    /** Epoch day of 1582-10-15, the first day of the Gregorian calendar. */
+    private static final int GREGORIAN_CUTOVER_DAY = -141427;
+    
+    private static volatile ZoneOffsets zone = new ZoneOffsets(TimeZone.getDefault());
+
     /**
-     * Convenience method for Date math.
+     * Re-reads the default time zone. Date arithmetic uses the zone that was
+     * the default when this class was loaded, or when this method was last
+     * called.
+     */
+    public static void resetTimeZone() {
+        zone = new ZoneOffsets(TimeZone.getDefault());
+    }
+
+    /**
+     * Converts a date to an epoch day, which is the number of days since
+     * 1970-01-01 in the default time zone. The time of day is ignored.
+     *
+     * @param date The date to convert.
+     * @return The epoch day.
+     */
+    public static int toEpochDay(Date date) {
+        return zone.toEpochDay(date.getTime());
+    }
+
+    /**
+     * Converts an epoch day to a date at midnight in the default time zone.
+     *
+     * @param day The epoch day.
+     * @return A new Date for the start of the day.
+     */
+    public static Date fromEpochDay(int day) {
+        return new Date(zone.getMidnight(day));
+    }
+
+    /**
+     * Convenience method for Date math. The time of day is kept.
      *
      * @param date The source date.
      * @param days The number of days to add to the source date
@@ -33,20 +81,35 @@ public class Utils {
      * @return The new Date.
      */
     public static java.util.Date addDays(java.util.Date date, int days) {
-        Calendar c = Calendar.getInstance();
-        c.clear();
-        c.setTime(date);
-        c.add(Calendar.DAY_OF_MONTH, days);
-        return c.getTime();
+        ZoneOffsets z = zone;
+        long millis = date.getTime();
+        int offset = z.getOffset(millis);
+        long local = millis + offset;
+        long day = ZoneOffsets.floorDiv(local, MILLIS_PER_DAY);
+        long timeOfDay = local - day * MILLIS_PER_DAY;
+        day += days;
+        // Keep the wall clock time. If the offset changed, adjust for it
+        // unless that moves us to another day (same rules as Calendar.add).
+        long result = day * MILLIS_PER_DAY + timeOfDay - offset;
+        int change = offset - z.getOffset(result);
+        if (change != 0 && z.toEpochDay(result + change) == day) {
+            result += change;
+        }
+        return new Date(result);
     }
     
+    /**
+     * Gets the number of days from one date to another, ignoring the time
+     * of day.
+     *
+     * @param from The first date.
+     * @param to The second date.
+     * @return The number of days, negative if <tt>to</tt> is before
+     *      <tt>from</tt>.
+     */
     public static long daysBetween(Date from, Date to) {
-        long t1 = to.getTime() / 1000;
-        long t2 = from.getTime() / 1000;
-        long d = t1 - t2;
-        long result = d / 86400;
-        
-        return result;
+        ZoneOffsets z = zone;
+        return z.toEpochDay(to.getTime()) - z.toEpochDay(from.getTime());
     }
 
     /**
@@ -61,9 +124,28 @@ public class Utils {
      */
 
     public static int getNoOfDaysInMonth(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-        return cal.getActualMaximum(Calendar.DAY_OF_MONTH);
+        int day = toEpochDay(date);
+        if (day < GREGORIAN_CUTOVER_DAY) {
+            Calendar cal = Calendar.getInstance(zone.getZone());
+            cal.setTime(date);
+            return cal.getActualMaximum(Calendar.DAY_OF_MONTH);
+        }
+        int yearMonth = yearMonthFromDays(day);
+        return getNoOfDaysInMonth(yearMonth / 12, yearMonth % 12 + 1);
+    }
+
+    private static int getNoOfDaysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
     }
 
     /**
@@ -91,8 +173,7 @@ public class Utils {
      *
      */
     public static boolean isOneDayBefore(Date from, Date to) {
-    	long d = daysBetween(from, to);
-    	return d == 1;
+    	return daysBetween(from, to) == 1;
     }
 
     public static String join(Iterable<String> collection, String separator) {
@@ -130,10 +211,60 @@ public class Utils {
      * @return a java.util.Date instance with your values
      */
     public static java.util.Date newDate(int year, int month, int day, int hour, int min, int sec) {
-        Calendar c = Calendar.getInstance();
-        c.clear();
-        c.set(year, month - 1, day, hour, min, sec);
-        return c.getTime();
+        // Normalize the month like a lenient Calendar would.
+        int m = month - 1;
+        year += (int) ZoneOffsets.floorDiv(m, 12);
+        m -= (int) ZoneOffsets.floorDiv(m, 12) * 12;
+        long days = daysFromCivil(year, m + 1) + day - 1;
+        if (days < GREGORIAN_CUTOVER_DAY) {
+            Calendar c = Calendar.getInstance(zone.getZone());
+            c.clear();
+            c.set(year, m, day, hour, min, sec);
+            return c.getTime();
+        }
+        if (hour == 0 && min == 0 && sec == 0) {
+            return fromEpochDay((int) days);
+        }
+        long local = days * MILLIS_PER_DAY + ((hour * 60L + min) * 60L + sec) * 1000L;
+        return new Date(zone.toMillis(local));
+    }
+
+    /**
+     * Gets the epoch day of the first day of a month in the proleptic
+     * Gregorian calendar.
+     *
+     * @param year The year.
+     * @param month The month (1 = jan).
+     * @return The epoch day.
+     */
+    private static long daysFromCivil(int year, int month) {
+        // Years start in March so the leap day is the last day of the year.
+        long y = month <= 2 ? year - 1 : year;
+        long era = ZoneOffsets.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Gets the year and month for an epoch day in the proleptic Gregorian
+     * calendar.
+     *
+     * @param day The epoch day.
+     * @return <tt>year * 12 + month</tt>, where month is zero-based.
+     */
+    private static int yearMonthFromDays(long day) {
+        long z = day + 719468;
+        long era = ZoneOffsets.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int month = (int) (mp < 10 ? mp + 2 : mp - 10);
+        long year = yearOfEra + era * 400 + (month < 2 ? 1 : 0);
+        return (int) year * 12 + month;
     }
     
 	/**
@@ -153,18 +284,32 @@ public class Utils {
         return true; // both are null.
     }
 
+    /**
+     * Computes a 64 bit hash of the specified values, for use as the
+     * fingerprint of a <tt>FingerprintedTemporalData</tt> object.
+     *
+     * @param values The data fields. Null values are allowed.
+     * @return The combined hash.
+     */
+    public static long fingerprint(Object... values) {
+        long h = 1125899906842597L;
+        for (Object value : values) {
+            h = 31 * h + (value == null ? 0 : value.hashCode());
+        }
+        // Spread the bits, so fingerprints of similar values are far apart.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
 	/**
      * Gets today's date at midnight (00:00:00).
      *
      * @return Today's date at midnight.
      */
     public static java.util.Date todaysDate() {
-        Calendar c = Calendar.getInstance();
-        c.set(Calendar.HOUR, 0);
-        c.set(Calendar.MINUTE, 0);
-        c.set(Calendar.SECOND, 0);
-        c.set(Calendar.MILLISECOND, 0);
-        return c.getTime();
+        return fromEpochDay(zone.toEpochDay(System.currentTimeMillis()));
     }
 	
 	/**
@@ -184,14 +329,26 @@ public class Utils {
 	}
 	
 	public static int getYear(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-        return cal.get(Calendar.YEAR);
+        int day = toEpochDay(date);
+        if (day < GREGORIAN_CUTOVER_DAY) {
+            Calendar cal = Calendar.getInstance(zone.getZone());
+            cal.setTime(date);
+            return cal.get(Calendar.YEAR);
+        }
+        return yearMonthFromDays(day) / 12;
     }
 	
+	/**
+	 * @param date The date.
+	 * @return The zero-based month (0 = jan), like <tt>Calendar.MONTH</tt>.
+	 */
 	public static int getMonth(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-        return cal.get(Calendar.MONTH);
+        int day = toEpochDay(date);
+        if (day < GREGORIAN_CUTOVER_DAY) {
+            Calendar cal = Calendar.getInstance(zone.getZone());
+            cal.setTime(date);
+            return cal.get(Calendar.MONTH);
+        }
+        return yearMonthFromDays(day) % 12;
     }
 }
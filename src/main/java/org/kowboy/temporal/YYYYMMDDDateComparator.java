@@ -18,25 +18,17 @@
  */
 package org.kowboy.temporal;
 
-import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
 
+/**
+ * Compares dates by day, ignoring the time of day.
+ */
 public class YYYYMMDDDateComparator implements Comparator<Date> {
 
 	public int compare(Date date1, Date date2) {
-		Calendar cal1 = Calendar.getInstance();
-		cal1.setTime(date1);
-		Calendar cal2 = Calendar.getInstance();
-		cal2.setTime(date2);
-
-		cal1.set(Calendar.HOUR, 0);
-		cal1.set(Calendar.MINUTE, 0);
-		cal1.set(Calendar.SECOND, 0);
-		cal2.set(Calendar.HOUR, 0);
-		cal2.set(Calendar.MINUTE, 0);
-		cal2.set(Calendar.SECOND, 0);
-		
-		return cal1.compareTo(cal2);
+		int day1 = Utils.toEpochDay(date1);
+		int day2 = Utils.toEpochDay(date2);
+		return day1 < day2 ? -1 : (day1 == day2 ? 0 : 1);
 	}
 }
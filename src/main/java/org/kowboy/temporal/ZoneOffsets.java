@@ -0,0 +1,138 @@
+/*
+ * Temporal Collections - Hibernate implementation of temporal data patterns.
+ * Copyright (C) 2008  Craig McDaniel
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.kowboy.temporal;
+
+import java.util.TimeZone;
+
+/**
+ * Caches the offsets of a time zone for day-level date arithmetic. Looking
+ * up a cached offset does not allocate, which matters because
+ * <tt>TimeZone.getDefault()</tt> clones the zone on every call.<p>
+ * 
+ * Two small direct-mapped caches are kept: the offset of each UTC day that
+ * has no offset transition, and the instant of local midnight for each
+ * epoch day. Entries are immutable, so the caches are safe to share
+ * between threads.
+ */
+final class ZoneOffsets {
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int CACHE_SIZE = 1024;
+    private static final int CACHE_MASK = CACHE_SIZE - 1;
+
+    private final TimeZone zone;
+    private final Entry[] utcDayOffsets = new Entry[CACHE_SIZE];
+    private final Entry[] midnights = new Entry[CACHE_SIZE];
+
+    ZoneOffsets(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    TimeZone getZone() {
+        return zone;
+    }
+
+    /**
+     * Gets the epoch day in this zone for an instant.
+     * 
+     * @param millis The instant.
+     * @return The local epoch day.
+     */
+    int toEpochDay(long millis) {
+        return (int) floorDiv(millis + getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * Gets the zone offset for an instant.
+     * 
+     * @param millis The instant.
+     * @return The offset from UTC in milliseconds.
+     */
+    int getOffset(long millis) {
+        long utcDay = floorDiv(millis, MILLIS_PER_DAY);
+        Entry e = utcDayOffsets[(int) utcDay & CACHE_MASK];
+        if (e != null && e.key == utcDay) {
+            return (int) e.value;
+        }
+        long dayStart = utcDay * MILLIS_PER_DAY;
+        int offset = zone.getOffset(dayStart);
+        if (offset == zone.getOffset(dayStart + MILLIS_PER_DAY - 1)) {
+            utcDayOffsets[(int) utcDay & CACHE_MASK] = new Entry(utcDay, offset);
+            return offset;
+        }
+        // There is a transition during this day, don't cache it.
+        return zone.getOffset(millis);
+    }
+
+    /**
+     * Gets the instant of midnight at the start of a local epoch day. If
+     * midnight does not exist on that day (DST gap), then like
+     * <tt>Calendar</tt> the first valid time after it is used.
+     * 
+     * @param day The epoch day.
+     * @return The instant in milliseconds.
+     */
+    long getMidnight(int day) {
+        Entry e = midnights[day & CACHE_MASK];
+        if (e != null && e.key == day) {
+            return e.value;
+        }
+        long millis = toMillis(day * MILLIS_PER_DAY);
+        midnights[day & CACHE_MASK] = new Entry(day, millis);
+        return millis;
+    }
+
+    /**
+     * Converts a local date and time, expressed as milliseconds since the
+     * local epoch, to an instant.
+     * 
+     * @param local The local time.
+     * @return The instant in milliseconds.
+     */
+    long toMillis(long local) {
+        int offset = getOffset(local - zone.getRawOffset());
+        int actual = getOffset(local - offset);
+        if (actual == offset) {
+            return local - offset;
+        }
+        int retry = getOffset(local - actual);
+        if (retry == actual) {
+            return local - actual;
+        }
+        // Local time falls in a DST gap, use the offset from before it.
+        return local - Math.min(offset, actual);
+    }
+
+    static long floorDiv(long a, long b) {
+        long q = a / b;
+        if ((a % b != 0) && ((a ^ b) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    private static final class Entry {
+        final long key;
+        final long value;
+
+        Entry(long key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
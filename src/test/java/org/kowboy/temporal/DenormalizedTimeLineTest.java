@@ -19,12 +19,27 @@
 package org.kowboy.temporal;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
+import org.kowboy.temporal.domain.PhoneNumber;
+
 public class DenormalizedTimeLineTest extends TestCase {
     private DenormalizedTimeLine timeLine = null;
+    private ExecutorService pool = null;
 
     @SuppressWarnings("unchecked")
 	protected void setUp() throws Exception {
@@ -34,6 +49,12 @@ public class DenormalizedTimeLineTest extends TestCase {
         timeLine.add(new MockTemporalData("key3", "data3"));
     }
 
+    protected void tearDown() throws Exception {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
     /**
      * Test the <tt>size()</tt> method.
      * @see DenormalizedTimeLineImpl#size()
@@ -46,6 +67,46 @@ public class DenormalizedTimeLineTest extends TestCase {
         assertEquals(3, timeLine.size());
     }
 
+    /**
+     * Test that the size and key count follow changes made through the
+     * per-key timelines, iterators and <tt>clear(TimePeriod)</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public void testCounts() {
+        DenormalizedTimeLine line = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        for (int i = 0; i < 10; i++) {
+            MockTemporalData md = new MockTemporalData("key" + (i % 3), "data" + i);
+            md.setTimePeriod(new TimePeriod(10000 + i * 10, 10004 + i * 10));
+            line.add(md);
+        }
+        assertEquals(10, line.size());
+        assertEquals(3, line.getKeyCount());
+        
+        // Replace two records of key0 with one.
+        MockTemporalData md = new MockTemporalData("key0", "data");
+        md.setTimePeriod(new TimePeriod(9999, 10040));
+        line.add(md);
+        assertEquals(9, line.size());
+        
+        // Remove all of key1 through the iterator.
+        Iterator<TemporalData> it = line.iterator();
+        while (it.hasNext()) {
+            if ("key1".equals(it.next().getTimeLineKey())) {
+                it.remove();
+            }
+        }
+        assertEquals(6, line.size());
+        assertEquals(2, line.getKeyCount());
+        
+        line.clear(new TimePeriod(9999, 10062));
+        assertEquals(3, line.size());
+        assertEquals(2, line.getKeyCount());
+        line.clear(new TimePeriod(9999, 10100));
+        assertEquals(0, line.size());
+        assertEquals(0, line.getKeyCount());
+        assertTrue(line.isEmpty());
+    }
+
     /**
      * Test the <tt>add(Object)</tt> method.
      */
@@ -72,6 +133,94 @@ public class DenormalizedTimeLineTest extends TestCase {
         assertTrue(!md2.equals(md3));
     }
 
+    /**
+     * Test the <tt>getAllAsOf(Date)</tt> method.
+     */
+    @SuppressWarnings("unchecked")
+    public void testGetAllAsOf() {
+        DenormalizedTimeLine line = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        for (int i = 0; i < 2000; i++) {
+            MockTemporalData md = new MockTemporalData("key" + i, "data" + i);
+            md.setTimePeriod(new TimePeriod(10000 + i % 50, 10100));
+            line.add(md);
+        }
+        Date asOf = Utils.fromEpochDay(10020);
+        Map<Object,TemporalData> all = line.getAllAsOf(asOf);
+        int expected = 0;
+        for (int i = 0; i < 2000; i++) {
+            TemporalData d = line.getAsOf("key" + i, asOf);
+            if (d != null) {
+                expected++;
+            }
+            assertTrue(d == all.get("key" + i));
+        }
+        assertEquals(expected, all.size());
+        assertTrue(timeLine.getAllAsOf(Utils.newDate(1900, 1, 1)).isEmpty());
+    }
+
+    /**
+     * Test the <tt>getChangedKeys(Date, Date)</tt> method with and without
+     * a change index.
+     */
+    @SuppressWarnings("unchecked")
+    public void testChangedKeys() {
+        DenormalizedTimeLineImpl scanned = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        DenormalizedTimeLineImpl indexed = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        DenormalizedTimeLineImpl concurrent = new ConcurrentDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY);
+        indexed.setChangeIndexed(true);
+        DenormalizedTimeLineImpl[] lines = {scanned, indexed, concurrent};
+        
+        Random random = new Random(42L);
+        for (int i = 0; i < 300; i++) {
+            String key = "key" + random.nextInt(40);
+            String data = "data" + random.nextInt(3);
+            int start = 10000 + random.nextInt(100);
+            int end = random.nextInt(4) == 0 ? TimePeriod.END_OF_TIME_DAY : start + random.nextInt(20);
+            for (DenormalizedTimeLineImpl line : lines) {
+                MockTemporalData md = new MockTemporalData(key, data);
+                md.setTimePeriod(new TimePeriod(start, end));
+                line.add(md);
+            }
+        }
+        concurrent.setChangeIndexed(true);
+        for (DenormalizedTimeLineImpl line : lines) {
+            line.clear(new TimePeriod(10040, 10050));
+            Iterator<TemporalData> it = line.iterator();
+            while (it.hasNext()) {
+                if (it.next().getTimeLineKey().equals("key7")) {
+                    it.remove();
+                }
+            }
+        }
+        assertEquals(scanned.size(), indexed.size());
+        
+        for (int from = 9990; from < 10130; from += 3) {
+            for (int to = from; to < 10130; to += 7) {
+                Set<Object> expected = scanned.getChangedKeys(Utils.fromEpochDay(from), Utils.fromEpochDay(to));
+                assertEquals(expected, indexed.getChangedKeys(Utils.fromEpochDay(from), Utils.fromEpochDay(to)));
+                assertEquals(expected, concurrent.getChangedKeys(Utils.fromEpochDay(from), Utils.fromEpochDay(to)));
+                assertFalse(expected.contains("key7"));
+            }
+        }
+        
+        // A key changes on the day a record starts and the day after it ends.
+        MockTemporalData md = new MockTemporalData("new", "data");
+        md.setTimePeriod(new TimePeriod(20000, 20010));
+        indexed.add(md);
+        assertTrue(indexed.getChangedKeys(Utils.fromEpochDay(19999), Utils.fromEpochDay(20000)).contains("new"));
+        assertFalse(indexed.getChangedKeys(Utils.fromEpochDay(20000), Utils.fromEpochDay(20010)).contains("new"));
+        assertTrue(indexed.getChangedKeys(Utils.fromEpochDay(20010), Utils.fromEpochDay(20011)).contains("new"));
+    }
+
+    /**
+     * Test the <tt>cursor(Object)</tt> method.
+     */
+    public void testCursor() {
+        TimeLineCursor cursor = timeLine.cursor("key2");
+        assertTrue(timeLine.getAsOf("key2", new Date()) == cursor.getAsOf(new Date()));
+        assertNull(timeLine.cursor("nokey").getAsOf(new Date()));
+    }
+
     /**
      * Test the <tt>iterator()</tt> method.
      */
@@ -86,6 +235,419 @@ public class DenormalizedTimeLineTest extends TestCase {
         assertEquals(timeLine.size(), count);
     }
     
+    /**
+     * Test the <tt>chronologicalIterator()</tt> method.
+     */
+    @SuppressWarnings("unchecked")
+    public void testChronologicalIterator() {
+        DenormalizedTimeLine line = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        for (int i = 0; i < 30; i++) {
+            MockTemporalData md = new MockTemporalData("key" + (i * 7 % 5), "data" + i);
+            md.setTimePeriod(new TimePeriod(10000 + i * 3, 10001 + i * 3));
+            line.add(md);
+        }
+        int previous = Integer.MIN_VALUE;
+        int count = 0;
+        Iterator<TemporalData> it = line.chronologicalIterator();
+        while (it.hasNext()) {
+            TemporalData d = it.next();
+            assertTrue(previous <= d.getTimePeriod().getStartDay());
+            previous = d.getTimePeriod().getStartDay();
+            if ("key3".equals(d.getTimeLineKey())) {
+                it.remove();
+            }
+            count++;
+        }
+        assertEquals(30, count);
+        assertEquals(24, line.size());
+        assertEquals(4, line.getKeyCount());
+        assertEquals(10000, line.chronologicalIterator().next()
+                .getTimePeriod().getStartDay());
+    }
+
+    /**
+     * Test typed property access by key.
+     */
+    public void testTypedProperty() {
+        TemporalDataFactory phoneNumberFactory = new TemporalDataFactory() {
+            public TemporalData newInstance() {
+                return new PhoneNumber();
+            }
+        };
+        TemporalProperty<PhoneNumber,Integer> areaCode = 
+            TemporalProperty.forName(PhoneNumber.class, "areaCode", Integer.class);
+        DenormalizedTimeLine[] lines = {
+                new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY),
+                new ConcurrentDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY)};
+        for (DenormalizedTimeLine line : lines) {
+            line.set("a", areaCode, new TimePeriod(10000, 10099), 502, phoneNumberFactory);
+            line.set("b", areaCode, new TimePeriod(10050, 10149), 202, phoneNumberFactory);
+            line.set("a", areaCode, new TimePeriod(10050, 10149), 606, phoneNumberFactory);
+            assertEquals(3, line.size());
+            assertEquals(2, line.getKeyCount());
+            assertEquals(Integer.valueOf(502), line.get("a", areaCode, Utils.fromEpochDay(10049)));
+            assertEquals(Integer.valueOf(606), line.get("a", areaCode, Utils.fromEpochDay(10050)));
+            assertEquals(Integer.valueOf(202), line.get("b", areaCode, Utils.fromEpochDay(10050)));
+            assertNull(line.get("b", areaCode, Utils.fromEpochDay(10049)));
+            assertNull(line.get("c", areaCode, Utils.fromEpochDay(10050)));
+        }
+    }
+    
+    /**
+     * Test that the parallel operations over many keys give the same 
+     * timelines as applying them to each key in turn.
+     */
+    @SuppressWarnings("unchecked")
+    public void testBulkOperations() {
+        TemporalDataFactory phoneNumberFactory = new TemporalDataFactory() {
+            public TemporalData newInstance() {
+                return new PhoneNumber();
+            }
+        };
+        DenormalizedTimeLineImpl[] lines = {
+                new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY),
+                new ConcurrentDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY)};
+        pool = Executors.newFixedThreadPool(4);
+        List<Object> keys = new ArrayList<Object>();
+        List<Object> oddKeys = new ArrayList<Object>();
+        TimeLine[] expected = new TimeLine[1000];
+        int expectedSize = 0;
+        for (int i = 0; i < 1000; i++) {
+            keys.add("key" + i);
+            if (i % 2 == 1) {
+                oddKeys.add("key" + i);
+            }
+            expected[i] = new PeriodOfExistenceTimeLine();
+            expected[i].setProperty("numberString", new TimePeriod(10000, 10100), 
+                    "555-1111", phoneNumberFactory);
+            if (i % 2 == 1) {
+                expected[i].setProperty("numberString", new TimePeriod(10040 + i % 10, 10060), 
+                        "555-2222", phoneNumberFactory);
+            }
+            expected[i].clear(new TimePeriod(10090, 10200));
+            expectedSize += expected[i].size();
+        }
+        
+        for (DenormalizedTimeLineImpl line : lines) {
+            line.setExecutor(pool);
+            line.setPropertyForKeys(keys, "numberString", new TimePeriod(10000, 10100),
+                    "555-1111", phoneNumberFactory);
+            for (Object key : oddKeys) {
+                int i = Integer.parseInt(((String) key).substring(3));
+                line.setPropertyForKeys(Collections.singleton(key), "numberString", 
+                        new TimePeriod(10040 + i % 10, 10060), "555-2222", phoneNumberFactory);
+            }
+            line.clear(new TimePeriod(10090, 10200));
+            assertEquals(expectedSize, line.size());
+            assertEquals(1000, line.getKeyCount());
+            
+            for (int i = 0; i < 1000; i++) {
+                Iterator<TemporalData> it = expected[i].iterator();
+                while (it.hasNext()) {
+                    PhoneNumber pn = (PhoneNumber) it.next();
+                    PhoneNumber found = (PhoneNumber) line.getAsOf("key" + i, pn.getTimePeriod().getStartDate());
+                    assertEquals(pn.getTimePeriod(), found.getTimePeriod());
+                    assertEquals(pn.getNumberString(), found.getNumberString());
+                }
+            }
+            
+            // Terminating every key removes them all.
+            line.clear(new TimePeriod(9000, 11000));
+            assertEquals(0, line.size());
+            assertEquals(0, line.getKeyCount());
+        }
+        
+        // Bulk add is the same as adding each key's records to its timeline.
+        List<TemporalData> records = new ArrayList<TemporalData>();
+        Random random = new Random(7L);
+        for (int i = 0; i < 3000; i++) {
+            MockTemporalData md = new MockTemporalData("key" + random.nextInt(600), "data" + random.nextInt(2));
+            int start = 10000 + random.nextInt(50);
+            md.setTimePeriod(new TimePeriod(start, start + random.nextInt(10)));
+            records.add(md);
+        }
+        List<TimeLine> references = new ArrayList<TimeLine>();
+        int size = 0;
+        for (int k = 0; k < 600; k++) {
+            List<TemporalData> group = new ArrayList<TemporalData>();
+            for (TemporalData d : records) {
+                if (d.getTimeLineKey().equals("key" + k)) {
+                    group.add((TemporalData) d.clone());
+                }
+            }
+            TimeLine reference = new PeriodOfExistenceTimeLine();
+            reference.addAll(group);
+            references.add(reference);
+            size += reference.size();
+        }
+        DenormalizedTimeLineImpl bulk = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        bulk.setExecutor(pool);
+        assertTrue(bulk.addAll(records));
+        for (int k = 0; k < 600; k++) {
+            for (TemporalData d : (Iterable<TemporalData>) references.get(k)) {
+                TemporalData found = bulk.getAsOf("key" + k, d.getTimePeriod().getStartDate());
+                assertEquals(d.getTimePeriod(), found.getTimePeriod());
+                assertTrue(d.equalsIgnorePeriod(found));
+            }
+        }
+        assertEquals(size, bulk.size());
+    }
+    
+    /**
+     * Test that operations over many keys stay on the calling thread unless
+     * an executor is set, and that a call made from a thread of the 
+     * executor it uses still finishes.
+     */
+    @SuppressWarnings("unchecked")
+    public void testExecutor() throws Exception {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final TemporalDataFactory phoneNumberFactory = new TemporalDataFactory() {
+            public TemporalData newInstance() {
+                threads.add(Thread.currentThread());
+                return new PhoneNumber();
+            }
+        };
+        final List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < 2000; i++) {
+            keys.add("key" + i);
+        }
+        DenormalizedTimeLineImpl line = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        line.setPropertyForKeys(keys, "numberString", new TimePeriod(10000, 10100),
+                "555-1111", phoneNumberFactory);
+        assertEquals(2000, threads.size());
+        assertEquals(Collections.singleton(Thread.currentThread()), 
+                new java.util.HashSet<Thread>(threads));
+        
+        pool = Executors.newSingleThreadExecutor();
+        final DenormalizedTimeLineImpl nested = new DenormalizedTimeLineImpl(TimeLineFactory.POE_TL_FACTORY);
+        nested.setExecutor(pool);
+        Future<?> done = pool.submit(new Runnable() {
+            public void run() {
+                nested.setPropertyForKeys(keys, "numberString", new TimePeriod(10000, 10100),
+                        "555-1111", phoneNumberFactory);
+            }
+        });
+        done.get(30, TimeUnit.SECONDS);
+        assertEquals(2000, nested.getKeyCount());
+    }
+    
+    /**
+     * Test the <tt>LongKeyedDenormalizedTimeLine</tt> and the map behind it.
+     */
+    @SuppressWarnings("unchecked")
+    public void testLongKeyed() {
+        LongKeyedDenormalizedTimeLine line = new LongKeyedDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY);
+        for (int i = 0; i < 500; i++) {
+            MockTemporalData md = new MockTemporalData(Long.valueOf(i * 37L), "data" + i);
+            md.setTimePeriod(new TimePeriod(10000 + i % 10, 10100));
+            line.add(md);
+        }
+        MockTemporalData md = new MockTemporalData(Integer.valueOf(74), "other");
+        md.setTimePeriod(new TimePeriod(10200, 10300));
+        line.add(md);
+        assertEquals(501, line.size());
+        assertEquals(500, line.getKeyCount());
+        assertEquals("data2", ((MockTemporalData) line.getAsOf(74L, Utils.fromEpochDay(10050))).getData());
+        assertEquals("other", ((MockTemporalData) line.getAsOf(Long.valueOf(74), Utils.fromEpochDay(10250))).getData());
+        assertNull(line.getAsOf(75L, Utils.fromEpochDay(10050)));
+        try {
+            line.add(new MockTemporalData("key", "data"));
+            fail("String keys should be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertEquals(501, line.size());
+        }
+        
+        // Remove every other key through the iterator.
+        Iterator<TemporalData> it = line.iterator();
+        while (it.hasNext()) {
+            if (((Number) it.next().getTimeLineKey()).longValue() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(250, line.size());
+        for (long i = 0; i < 500; i++) {
+            assertEquals(i % 2 == 1, line.getAsOf(i * 37, Utils.fromEpochDay(10050)) != null);
+        }
+        
+        // Check the map against a HashMap with random operations.
+        Random random = new Random(3L);
+        LongTimeLineMap map = new LongTimeLineMap();
+        Map<Long,TimeLine> expected = new HashMap<Long,TimeLine>();
+        for (int i = 0; i < 20000; i++) {
+            Long key = Long.valueOf(random.nextInt(2000) - 1000);
+            switch (random.nextInt(3)) {
+            case 0:
+                TimeLine value = new PeriodOfExistenceTimeLine();
+                assertTrue(expected.put(key, value) == map.put(key, value));
+                break;
+            case 1:
+                assertTrue(expected.remove(key) == map.remove(key));
+                break;
+            default:
+                assertTrue(expected.get(key) == map.get(key));
+            }
+            if (i % 5000 == 4999) {
+                Iterator<Map.Entry<Object,TimeLine>> entries = map.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<Object,TimeLine> entry = entries.next();
+                    assertTrue(expected.get(entry.getKey()) == entry.getValue());
+                    if (random.nextBoolean()) {
+                        entries.remove();
+                        expected.remove(entry.getKey());
+                    }
+                }
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected.keySet(), map.keySet());
+    }
+    
+    /**
+     * Test that <tt>Integer</tt> and <tt>Long</tt> keys of the same value
+     * are one key everywhere in a <tt>LongKeyedDenormalizedTimeLine</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public void testLongKeyedIntegerKeys() {
+        LongKeyedDenormalizedTimeLine line = new LongKeyedDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY);
+        line.setChangeIndexed(true);
+        Date from = Utils.fromEpochDay(9990);
+        Date to = Utils.fromEpochDay(10300);
+        
+        MockTemporalData md = new MockTemporalData(Integer.valueOf(5), "data");
+        md.setTimePeriod(new TimePeriod(10000, 10100));
+        line.add(md);
+        line.clear(new TimePeriod(10050, 10060));
+        Set<Object> changed = line.getChangedKeys(from, to);
+        assertEquals(Collections.singleton((Object) Long.valueOf(5)), changed);
+        assertTrue(changed.contains(Integer.valueOf(5)));
+        
+        Map<Object,TemporalData> asOf = line.getAllAsOf(Utils.fromEpochDay(10010));
+        assertEquals(1, asOf.size());
+        assertEquals("data", ((MockTemporalData) asOf.get(Integer.valueOf(5))).getData());
+        assertTrue(asOf.containsKey(Long.valueOf(5)));
+        
+        // Both forms of the key in one call update one timeline.
+        line.setPropertyForKeys(java.util.Arrays.asList(Integer.valueOf(6), Long.valueOf(6)), 
+                "data", new TimePeriod(10200, 10210), "six", new TemporalDataFactory() {
+                    public TemporalData newInstance() {
+                        return new MockTemporalData(Long.valueOf(6), null);
+                    }
+                });
+        assertEquals(2, line.getKeyCount());
+        assertEquals("six", line.getProperty(Integer.valueOf(6), "data", Utils.fromEpochDay(10205)));
+        
+        // Records with either form of the key are loaded into one timeline.
+        List<TemporalData> records = new ArrayList<TemporalData>();
+        md = new MockTemporalData(Integer.valueOf(7), "a");
+        md.setTimePeriod(new TimePeriod(10000, 10009));
+        records.add(md);
+        md = new MockTemporalData(Long.valueOf(7), "b");
+        md.setTimePeriod(new TimePeriod(10010, 10019));
+        records.add(md);
+        line.addAll(records);
+        assertEquals(3, line.getKeyCount());
+        assertEquals("b", line.getProperty(7L, "data", Utils.fromEpochDay(10015)));
+        
+        line.setChangeIndexed(false);
+        Set<Object> unindexed = line.getChangedKeys(from, to);
+        line.setChangeIndexed(true);
+        assertEquals(unindexed, line.getChangedKeys(from, to));
+        assertTrue(unindexed.contains(Integer.valueOf(7)));
+    }
+    
+    /**
+     * Test that the timelines a <tt>ConcurrentDenormalizedTimeLine</tt> 
+     * publishes are not changed by reads.
+     */
+    @SuppressWarnings("unchecked")
+    public void testConcurrentPublishesSharedTimeLines() {
+        ConcurrentDenormalizedTimeLine line = 
+            new ConcurrentDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY);
+        for (int i = 0; i < 3; i++) {
+            MockTemporalData md = new MockTemporalData("key", "data" + i);
+            md.setTimePeriod(new TimePeriod(10000 + i * 10, 10004 + i * 10));
+            line.add(md);
+        }
+        AbstractTimeLine published = (AbstractTimeLine) line.timeLines.get("key");
+        assertFalse(((CompactTimeLineSet) published.set).isCompact());
+        
+        // Reads leave the published timeline as it was.
+        int modCount = published.getModCount();
+        Iterator<TemporalData> it = published.iterator();
+        it.next();
+        assertEquals(2, published.getSubset(new TimePeriod(10000, 10015)).size());
+        assertEquals("data1", ((MockTemporalData) it.next()).getData());
+        assertNotSame(published.getPropertyHistory("data"), published.getPropertyHistory("data"));
+        assertEquals(3, published.getPropertyHistory("data").size());
+        assertEquals(modCount, published.getModCount());
+        assertSame(published, line.timeLines.get("key"));
+    }
+    
+    /**
+     * Test reading and writing a <tt>ConcurrentDenormalizedTimeLine</tt> 
+     * from several threads at once.
+     */
+    @SuppressWarnings("unchecked")
+    public void testConcurrent() throws Exception {
+        final DenormalizedTimeLine shared = 
+            new ConcurrentDenormalizedTimeLine(TimeLineFactory.POE_TL_FACTORY);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final String key = "key" + t;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            MockTemporalData md = new MockTemporalData(key, "data" + i);
+                            md.setTimePeriod(new TimePeriod(10000 + i * 2, 10000 + i * 2));
+                            shared.add(md);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            TemporalData d = shared.getAsOf(key, Utils.fromEpochDay(10000 + i));
+                            if (d != null) {
+                                assertEquals(key, d.getTimeLineKey());
+                            }
+                            Iterator it = shared.iterator();
+                            while (it.hasNext()) {
+                                assertNotNull(it.next());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(800, shared.size());
+        assertEquals("data7", 
+                ((MockTemporalData) shared.getAsOf("key2", Utils.fromEpochDay(10014))).getData());
+        
+        Iterator it = shared.iterator();
+        it.next();
+        it.remove();
+        assertEquals(799, shared.size());
+    }
+    
     class MockTimeLineFactory implements TimeLineFactory {
         private static final long serialVersionUID = 1L;
         public TimeLine createTimeLine() {
@@ -142,6 +704,10 @@ public class DenormalizedTimeLineTest extends TestCase {
             return data;
         }
         
+        public void setData(String data) {
+            this.data = data;
+        }
+        
         public boolean equalsIgnorePeriod(TemporalData d) {
             MockTemporalData m = (MockTemporalData) d;
             return key.equals(d.getTimeLineKey()) && getData().equals(m.getData());
@@ -611,6 +611,727 @@ public class PeriodOfExistenceTest extends TimeLineTestCase {
         assertEquals(0, line.getEffectiveSubset(clearPeriod).size());
     }
     
+    /**
+     * Tests getAsOf and the neighbouring record lookups.
+     */
+    @SuppressWarnings("unchecked")
+    public void testNavigation() {
+        assertNull(line.getAsOf(Utils.newDate(1997, 1, 25)));
+        assertNull(line.getFirst());
+        assertNull(line.getLast());
+        
+        assertTrue(line.add(d2)); // 1997/1/21 - 1997/2/4
+        assertTrue(line.add(d3)); // 1998/7/2 - 1999/11/3
+        assertTrue(line.add(d5)); // 2003/12/3 - 2004/2/4
+        
+        assertTrue(d2 == line.getAsOf(Utils.newDate(1997, 1, 21)));
+        assertTrue(d2 == line.getAsOf(Utils.newDate(1997, 2, 4)));
+        assertTrue(d3 == line.getAsOf(Utils.newDate(1999, 1, 1)));
+        assertNull(line.getAsOf(Utils.newDate(1997, 1, 20)));
+        assertNull(line.getAsOf(Utils.newDate(2000, 1, 1)));
+        assertNull(line.getAsOf(Utils.newDate(2005, 1, 1)));
+        assertNull(line.getAsOf(null));
+        
+        // effective date: neighbours on either side.
+        assertTrue(d2 == line.getBefore(Utils.newDate(1999, 1, 1)));
+        assertTrue(d5 == line.getAfter(Utils.newDate(1999, 1, 1)));
+        // gap: closest records on either side.
+        assertTrue(d3 == line.getBefore(Utils.newDate(2000, 1, 1)));
+        assertTrue(d5 == line.getAfter(Utils.newDate(2000, 1, 1)));
+        // edges.
+        assertNull(line.getBefore(Utils.newDate(1997, 1, 25)));
+        assertNull(line.getAfter(Utils.newDate(2004, 1, 1)));
+        
+        assertTrue(d2 == line.getFirst());
+        assertTrue(d5 == line.getLast());
+    }
+
+    /**
+     * Tests the getEffectiveSubset and getSubset views.
+     */
+    @SuppressWarnings("unchecked")
+    public void testSubsets() {
+        assertTrue(line.add(d2)); // 1997/1/21 - 1997/2/4
+        assertTrue(line.add(d3)); // 1998/7/2 - 1999/11/3
+        assertTrue(line.add(d5)); // 2003/12/3 - 2004/2/4
+        
+        TimePeriod p = new TimePeriod(Utils.newDate(1997, 2, 1), Utils.newDate(2003, 12, 3));
+        TimeLine effective = line.getEffectiveSubset(p);
+        assertEquals(3, effective.size());
+        TimeLine contained = line.getSubset(p);
+        assertEquals(1, contained.size());
+        assertTrue(d3 == contained.iterator().next());
+        
+        p = new TimePeriod(Utils.newDate(1997, 1, 21), Utils.newDate(1999, 11, 3));
+        assertEquals(2, line.getEffectiveSubset(p).size());
+        assertEquals(2, line.getSubset(p).size());
+        
+        p = new TimePeriod(Utils.newDate(2000, 1, 1), Utils.newDate(2001, 1, 1));
+        assertEquals(0, line.getEffectiveSubset(p).size());
+        assertEquals(0, line.getSubset(p).size());
+        
+        // Views reflect changes to the timeline and can not be modified.
+        p = new TimePeriod(Utils.newDate(1999, 1, 1), Utils.newDate(2003, 12, 31));
+        effective = line.getEffectiveSubset(p);
+        assertEquals(2, effective.size());
+        line.remove(d5);
+        assertEquals(1, effective.size());
+        try {
+            effective.add(d5);
+            fail("Subset views should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that a cursor gives the same results as getAsOf, in any order.
+     */
+    @SuppressWarnings("unchecked")
+    public void testCursor() {
+        assertNull(line.cursor().getAsOf(Utils.newDate(1997, 1, 25)));
+        
+        assertTrue(line.add(d2)); // 1997/1/21 - 1997/2/4
+        assertTrue(line.add(d3)); // 1998/7/2 - 1999/11/3
+        assertTrue(line.add(d5)); // 2003/12/3 - 2004/2/4
+        
+        TimeLineCursor cursor = line.cursor();
+        Date day = Utils.newDate(1996, 12, 1);
+        Date end = Utils.newDate(2004, 3, 1);
+        while (!day.after(end)) {
+            assertTrue("Wrong record for " + day, line.getAsOf(day) == cursor.getAsOf(day));
+            day = Utils.addDays(day, 1);
+        }
+        
+        // backwards.
+        assertTrue(d3 == cursor.getAsOf(Utils.newDate(1999, 1, 1)));
+        assertNull(cursor.getAsOf(Utils.newDate(1996, 1, 1)));
+        assertTrue(d5 == cursor.getAsOf(Utils.newDate(2004, 1, 1)));
+        
+        // modifications are picked up.
+        assertTrue(d2 == cursor.getAsOf(Utils.newDate(1997, 2, 1)));
+        assertTrue(line.add(d1)); // 1996/3/14 - N/A
+        assertTrue(d1 == cursor.getAsOf(Utils.newDate(1997, 2, 2)));
+        assertTrue(d1 == cursor.getAsOf(Utils.newDate(2005, 1, 1)));
+        assertTrue(d1 == cursor.getAsOf(null));
+    }
+
+    /**
+     * Tests looking up several dates at once.
+     */
+    @SuppressWarnings("unchecked")
+    public void testGetAsOfAll() {
+        assertTrue(line.add(d2)); // 1997/1/21 - 1997/2/4
+        assertTrue(line.add(d3)); // 1998/7/2 - 1999/11/3
+        assertTrue(line.add(d5)); // 2003/12/3 - 2004/2/4
+        
+        Date[] monthEnds = new Date[120];
+        for (int i = 0; i < monthEnds.length; i++) {
+            monthEnds[i] = Utils.newDate(1996, i + 2, 0);
+        }
+        TemporalData[] found = line.getAsOfAll(monthEnds);
+        assertEquals(monthEnds.length, found.length);
+        for (int i = 0; i < monthEnds.length; i++) {
+            assertTrue(line.getAsOf(monthEnds[i]) == found[i]);
+        }
+        
+        // unordered dates work too.
+        found = line.getAsOfAll(new Date[] {Utils.newDate(2004, 1, 1),
+                Utils.newDate(1997, 1, 1), Utils.newDate(1997, 2, 1)});
+        assertTrue(d5 == found[0]);
+        assertNull(found[1]);
+        assertTrue(d2 == found[2]);
+    }
+
+    /**
+     * Tests that adding a record only compares the records around it when
+     * merging.
+     */
+    @SuppressWarnings("unchecked")
+    public void testLocalMerge() {
+        final int[] comparisons = new int[1];
+        for (int i = 0; i < 100; i++) {
+            line.add(new SimpleTemporalData(new TimePeriod(10000 + i * 10, 10009 + i * 10),
+                    i % 2 == 0 ? "A" : "B") {
+                @Override
+                public boolean equalsIgnorePeriod(TemporalData d) {
+                    comparisons[0]++;
+                    return super.equalsIgnorePeriod(d);
+                }
+            });
+        }
+        assertEquals(100, line.size());
+        
+        // Bridge two "A" records with another "A" record.
+        comparisons[0] = 0;
+        assertTrue(line.add(new SimpleTemporalData(new TimePeriod(10510, 10519), "A")));
+        assertTrue(comparisons[0] <= 4);
+        assertEquals(98, line.size());
+        TemporalData merged = line.getAsOf(Utils.fromEpochDay(10510));
+        assertEquals(new TimePeriod(10500, 10529), merged.getTimePeriod());
+    }
+    
+    /**
+     * Tests that adding to the end of a long history does not compare the
+     * new record with every existing one.
+     */
+    @SuppressWarnings("unchecked")
+    public void testAddAtEnd() {
+        for (int i = 0; i < 100; i++) {
+            line.add(new SimpleTemporalData(new TimePeriod(10000 + i * 10, 10004 + i * 10),
+                    i % 2 == 0 ? "A" : "B"));
+        }
+        final int[] comparisons = new int[1];
+        TemporalData last = new SimpleTemporalData(new TimePeriod(10992, 11100), "C") {
+            @Override
+            public boolean equals(Object o) {
+                comparisons[0]++;
+                return super.equals(o);
+            }
+        };
+        assertTrue(line.add(last));
+        assertTrue(comparisons[0] <= 1);
+        assertEquals(101, line.size());
+        assertEquals(10991, line.getBefore(Utils.fromEpochDay(10992))
+                .getTimePeriod().getEndDay());
+        
+        assertTrue(line.contains(last));
+        assertFalse(line.add(last));
+        assertFalse(line.contains(new SimpleTemporalData(new TimePeriod(10992, 11100), "D")));
+    }
+    
+    /**
+     * Tests loading a batch of records into an empty timeline.
+     */
+    public void testBulkLoad() {
+        checkBulkLoad(TimeLineFactory.POE_TL_FACTORY);
+    }
+    
+    /**
+     * Tests that a correction in the middle of a long timeline only looks
+     * at the records around the corrected period.
+     */
+    public void testRetroactiveSetProperty() {
+        final int[] lookups = new int[1];
+        for (int i = 0; i < 1000; i++) {
+            line.add(new SimpleTemporalData(new TimePeriod(10000 + i * 10, 10009 + i * 10),
+                    i % 2 == 0 ? "A" : "B") {
+                @Override
+                public TimePeriod getTimePeriod() {
+                    lookups[0]++;
+                    return super.getTimePeriod();
+                }
+            });
+        }
+        lookups[0] = 0;
+        line.setProperty("data", new TimePeriod(19003, 19026), "C", null);
+        assertTrue(lookups[0] < 300);
+        
+        assertEquals(1000, line.size());
+        assertEquals(new TimePeriod(19000, 19002), 
+                line.getAsOf(Utils.fromEpochDay(19002)).getTimePeriod());
+        assertEquals("A", line.getProperty("data", Utils.fromEpochDay(19002)));
+        assertEquals(new TimePeriod(19003, 19026), 
+                line.getAsOf(Utils.fromEpochDay(19003)).getTimePeriod());
+        assertEquals("C", line.getProperty("data", Utils.fromEpochDay(19026)));
+        assertEquals(new TimePeriod(19027, 19029), 
+                line.getAsOf(Utils.fromEpochDay(19027)).getTimePeriod());
+        assertEquals("A", line.getProperty("data", Utils.fromEpochDay(19027)));
+        assertEquals("B", line.getProperty("data", Utils.fromEpochDay(19030)));
+    }
+    
+    /**
+     * Tests that setting several properties at once gives the same 
+     * timeline as setting them one at a time.
+     */
+    public void testSetProperties() {
+        // Only the middle of the record changes.
+        java.util.Map<String,Object> changes = new java.util.LinkedHashMap<String,Object>();
+        changes.put("numberString", "555-0001");
+        changes.put("areaCode", 502);
+        line.setProperty("numberString", new TimePeriod(10050, 10069), "555-0002", phoneNumberFactory);
+        line.setProperties(changes, new TimePeriod(10055, 10064), phoneNumberFactory);
+        assertEquals(3, line.size());
+        Iterator<TemporalData> iter = line.iterator();
+        PhoneNumber p1 = (PhoneNumber) iter.next();
+        PhoneNumber p2 = (PhoneNumber) iter.next();
+        PhoneNumber p3 = (PhoneNumber) iter.next();
+        assertEquals(new TimePeriod(10050, 10054), p1.getTimePeriod());
+        assertEquals("555-0002", p1.getNumberString());
+        assertNull(p1.getAreaCode());
+        assertEquals(new TimePeriod(10055, 10064), p2.getTimePeriod());
+        assertEquals("555-0001", p2.getNumberString());
+        assertEquals(502, p2.getAreaCode().intValue());
+        assertEquals(new TimePeriod(10065, 10069), p3.getTimePeriod());
+        assertEquals("555-0002", p3.getNumberString());
+        assertNull(p3.getAreaCode());
+        
+        java.util.Random random = new java.util.Random(20080419);
+        for (int run = 0; run < 50; run++) {
+            TimeLine sequential = new PeriodOfExistenceTimeLine();
+            TimeLine combined = new PeriodOfExistenceTimeLine();
+            for (int op = 0; op < 20; op++) {
+                int start = 10000 + random.nextInt(60);
+                TimePeriod period = new TimePeriod(start, start + random.nextInt(20));
+                java.util.Map<String,Object> values = new java.util.LinkedHashMap<String,Object>();
+                if (random.nextBoolean()) {
+                    values.put("numberString", "555-000" + random.nextInt(3));
+                }
+                values.put("areaCode", random.nextInt(3));
+                
+                for (java.util.Map.Entry<String,Object> entry : values.entrySet()) {
+                    sequential.setProperty(entry.getKey(), (TimePeriod) period.clone(), 
+                            entry.getValue(), phoneNumberFactory);
+                }
+                combined.setProperties(values, (TimePeriod) period.clone(), phoneNumberFactory);
+                
+                assertEquals(sequential.size(), combined.size());
+                Iterator<TemporalData> expected = sequential.iterator();
+                Iterator<TemporalData> actual = combined.iterator();
+                while (expected.hasNext()) {
+                    PhoneNumber e = (PhoneNumber) expected.next();
+                    PhoneNumber a = (PhoneNumber) actual.next();
+                    assertEquals(e.getTimePeriod(), a.getTimePeriod());
+                    assertTrue(e.equalsIgnorePeriod(a));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests property access through cached accessors, and the fallback to
+     * beanutils for nested properties.
+     */
+    public void testPropertyAccessor() {
+        TimePeriod t1 = new TimePeriod(Utils.newDate(2000, 1, 14),
+                Utils.newDate(2000, 2, 14));
+        line.setProperty("areaCode", t1, 502, phoneNumberFactory);
+        assertTrue(PropertyAccessor.forProperty(PhoneNumber.class, "areaCode").isResolved());
+        assertEquals(502, line.getProperty("areaCode", t1.getStartDate()));
+        assertNull(line.getProperty("numberString", t1.getStartDate()));
+        
+        assertFalse(PropertyAccessor.forProperty(PhoneNumber.class, "timePeriod.startDate")
+                .isResolved());
+        assertEquals(t1.getStartDate(), line.getProperty("timePeriod.startDate", t1.getEndDate()));
+        
+        try {
+            line.getProperty("faxNumber", t1.getStartDate());
+            fail("Expected TemporalPropertyException");
+        } catch (TemporalPropertyException e) {
+            assertTrue(e.getCause() instanceof NoSuchMethodException);
+        }
+        try {
+            line.setProperty("faxNumber", t1, "555-1212", phoneNumberFactory);
+            fail("Expected TemporalPropertyException");
+        } catch (TemporalPropertyException e) {
+            assertTrue(e.getCause() instanceof NoSuchMethodException);
+        }
+        
+        // Methods that have been cleared are resolved again.
+        PropertyAccessor accessor = PropertyAccessor.forProperty(PhoneNumber.class, "areaCode");
+        accessor.methods.clear();
+        assertEquals(502, accessor.get(line.getAsOf(t1.getStartDate())));
+        assertTrue(accessor.isResolved());
+    }
+    
+    /**
+     * Tests that cached accessors do not keep a class loaded.
+     */
+    public void testPropertyAccessorUnloading() {
+        Bean bean = new Bean();
+        PropertyAccessor.set(bean, "value", 7);
+        assertEquals(7, PropertyAccessor.get(bean, "value"));
+        PropertyAccessor accessor = PropertyAccessor.forProperty(Bean.class, "value");
+        assertTrue(accessor.type instanceof java.lang.ref.WeakReference);
+        assertTrue(accessor.methods instanceof java.lang.ref.SoftReference);
+        
+        PropertyAccessor.ClassKey key = null;
+        for (PropertyAccessor.ClassKey k : PropertyAccessor.CACHE.keySet()) {
+            if (k.get() == Bean.class) {
+                key = k;
+            }
+        }
+        assertNotNull(key);
+        
+        // As if Bean had been collected: its entry goes on the next miss.
+        key.clear();
+        key.enqueue();
+        assertNotSame(accessor, PropertyAccessor.forProperty(Bean.class, "value"));
+        assertFalse(PropertyAccessor.CACHE.containsKey(key));
+    }
+    
+    /**
+     * Tests setting and getting properties through typed handles.
+     */
+    public void testTypedProperty() {
+        TemporalProperty<PhoneNumber,Integer> areaCode = 
+            new TemporalProperty<PhoneNumber,Integer>("areaCode") {
+                public Integer get(PhoneNumber data) {
+                    return data.getAreaCode();
+                }
+                public void set(PhoneNumber data, Integer value) {
+                    data.setAreaCode(value);
+                }
+            };
+        TemporalProperty<PhoneNumber,String> numberString = 
+            TemporalProperty.forName(PhoneNumber.class, "numberString", String.class);
+        assertEquals("numberString", numberString.getName());
+        
+        TimePeriod t1 = new TimePeriod(10000, 10099);
+        TimePeriod t2 = new TimePeriod(10050, 10149);
+        line.set(areaCode, t1, 502, phoneNumberFactory);
+        line.set(numberString, t2, "555-1212", phoneNumberFactory);
+        line.setProperty("numberString", t1, "555-1212", phoneNumberFactory);
+        
+        assertEquals(2, line.size());
+        assertEquals(Integer.valueOf(502), line.get(areaCode, Utils.fromEpochDay(10099)));
+        assertNull(line.get(areaCode, Utils.fromEpochDay(10100)));
+        assertEquals("555-1212", line.get(numberString, Utils.fromEpochDay(10149)));
+        assertNull(line.get(numberString, Utils.fromEpochDay(10150)));
+        assertEquals(line.getProperty("areaCode", Utils.fromEpochDay(10000)), 
+                line.get(areaCode, Utils.fromEpochDay(10000)));
+        
+        try {
+            TemporalProperty.forName(PhoneNumber.class, "faxNumber", String.class)
+                .set(new PhoneNumber(), "555-1212");
+            fail("Expected TemporalPropertyException");
+        } catch (TemporalPropertyException e) {
+            assertTrue(e.getCause() instanceof NoSuchMethodException);
+        }
+        
+        try {
+            TemporalProperty.forName(PhoneNumber.class, "areaCode", String.class);
+            fail("Expected TemporalPropertyException");
+        } catch (TemporalPropertyException e) {
+            // expected
+        }
+        assertEquals(Integer.valueOf(502), line.get(TemporalProperty.forName(PhoneNumber.class,
+                "areaCode", Number.class), Utils.fromEpochDay(10000)));
+        assertEquals(Integer.valueOf(502), line.get(TemporalProperty.forName(PhoneNumber.class,
+                "areaCode", int.class), Utils.fromEpochDay(10000)));
+        TemporalProperty.forName(PhoneNumber.class, "areaCode", Object.class);
+        assertEquals(Integer.valueOf(502), 
+                TemporalProperty.getValue(line.getAsOf(Utils.fromEpochDay(10000)), "areaCode"));
+    }
+    
+    /**
+     * Tests that a property history coalesces records with equal values
+     * for the property, and is rebuilt when the timeline changes.
+     */
+    public void testPropertyHistory() {
+        line.setProperty("numberString", new TimePeriod(10000, 10019), "555-1111", phoneNumberFactory);
+        line.setProperty("numberString", new TimePeriod(10020, 10029), "555-2222", phoneNumberFactory);
+        line.setProperty("numberString", new TimePeriod(10040, 10049), "555-2222", phoneNumberFactory);
+        line.setProperty("areaCode", new TimePeriod(10000, 10009), 502, phoneNumberFactory);
+        line.setProperty("areaCode", new TimePeriod(10010, 10029), 606, phoneNumberFactory);
+        line.setProperty("areaCode", new TimePeriod(10040, 10049), 606, phoneNumberFactory);
+        assertEquals(4, line.size());
+        
+        PropertyHistory numbers = line.getPropertyHistory("numberString");
+        assertEquals(3, numbers.size());
+        assertEquals(new TimePeriod(10000, 10019), numbers.getTimePeriod(0));
+        assertEquals("555-1111", numbers.getValue(0));
+        assertEquals(new TimePeriod(10020, 10029), numbers.getTimePeriod(1));
+        assertEquals("555-2222", numbers.getValue(1));
+        assertEquals(new TimePeriod(10040, 10049), numbers.getTimePeriod(2));
+        assertEquals("555-2222", numbers.getValue(2));
+        assertEquals(1, numbers.indexOf(Utils.fromEpochDay(10029)));
+        assertEquals(-1, numbers.indexOf(Utils.fromEpochDay(10030)));
+        assertEquals(-1, numbers.indexOf(Utils.fromEpochDay(9999)));
+        assertNull(numbers.getValueAsOf(Utils.fromEpochDay(10050)));
+        assertEquals("555-1111", numbers.getValueAsOf(Utils.fromEpochDay(10019)));
+        
+        PropertyHistory areaCodes = line.getPropertyHistory("areaCode");
+        assertEquals(3, areaCodes.size());
+        assertEquals(new TimePeriod(10010, 10029), areaCodes.getTimePeriod(1));
+        assertSame(numbers, line.getPropertyHistory("numberString"));
+        assertSame(areaCodes, line.getPropertyHistory("areaCode"));
+        
+        // Changing the values of a record in place.
+        line.setProperty("numberString", new TimePeriod(10040, 10049), "555-3333", phoneNumberFactory);
+        assertEquals(4, line.size());
+        numbers = line.getPropertyHistory("numberString");
+        assertEquals("555-3333", numbers.getValue(2));
+        
+        // Shortening a record in place.
+        line.clear(new TimePeriod(10045, 10100));
+        assertEquals(4, line.size());
+        numbers = line.getPropertyHistory("numberString");
+        assertEquals(new TimePeriod(10040, 10044), numbers.getTimePeriod(2));
+    }
+    
+    /**
+     * Tests that records with different fingerprints are not compared 
+     * with equalsIgnorePeriod when merging.
+     */
+    public void testFingerprints() {
+        PhoneNumber p1 = new PhoneNumber();
+        p1.setNumberString("555-1212");
+        PhoneNumber p2 = (PhoneNumber) p1.cloneData();
+        assertEquals(p1.getValueFingerprint(), p2.getValueFingerprint());
+        p2.setAreaCode(502);
+        assertTrue(p1.getValueFingerprint() != p2.getValueFingerprint());
+        p1.setAreaCode(502);
+        assertEquals(p1.getValueFingerprint(), p2.getValueFingerprint());
+        
+        int[] comparisons = new int[1];
+        for (int i = 0; i < 100; i++) {
+            line.add(new CountingData(new TimePeriod(10000 + i * 10, 10009 + i * 10),
+                    i % 2 == 0 ? "A" : "B", comparisons));
+        }
+        assertEquals(100, line.size());
+        assertEquals(0, comparisons[0]);
+        
+        // Replacing a record with its neighbours' value merges all three.
+        line.add(new CountingData(new TimePeriod(10010, 10019), "A", comparisons));
+        assertEquals(98, line.size());
+        assertEquals(new TimePeriod(10000, 10029), 
+                line.getAsOf(Utils.fromEpochDay(10015)).getTimePeriod());
+        assertTrue(comparisons[0] > 0);
+    }
+    
+    /**
+     * Tests that small timelines stay in the compact form, that the
+     * compact set navigates like a TreeSet, and that ids are only saved
+     * once a record is removed.
+     */
+    public void testCompactSet() {
+        AbstractTimeLine poe = (AbstractTimeLine) line;
+        assertNull(poe.reusableIds);
+        for (int i = 0; i < CompactTimeLineSet.MAX_COMPACT; i++) {
+            poe.add(new SimpleTemporalData(new TimePeriod(10000 + i * 10, 10004 + i * 10), "v" + i));
+        }
+        assertTrue(((CompactTimeLineSet) poe.set).isCompact());
+        assertNull(poe.reusableIds);
+        
+        // Replacing a record saves its id for the record that replaces it.
+        poe.add(new SimpleTemporalData(new TimePeriod(10000, 10004), "w0"));
+        assertTrue(((CompactTimeLineSet) poe.set).isCompact());
+        assertNotNull(poe.reusableIds);
+        assertEquals(CompactTimeLineSet.MAX_COMPACT, poe.size());
+        
+        poe.add(new SimpleTemporalData(new TimePeriod(20000, 20004), "last"));
+        assertFalse(((CompactTimeLineSet) poe.set).isCompact());
+        assertEquals(CompactTimeLineSet.MAX_COMPACT + 1, poe.size());
+        assertEquals("v3", poe.getAsOf(Utils.fromEpochDay(10032)).getIdentity());
+        
+        java.util.Random random = new java.util.Random(20080412);
+        for (int run = 0; run < 200; run++) {
+            CompactTimeLineSet compact = new CompactTimeLineSet();
+            java.util.TreeSet<TemporalData> tree = 
+                new java.util.TreeSet<TemporalData>(new StartDateComparator());
+            for (int op = 0; op < 30; op++) {
+                TemporalData d = new SimpleTemporalData(new TimePeriod(random.nextInt(16), 20));
+                switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(tree.add(d), compact.add(d));
+                    break;
+                case 2:
+                    assertEquals(tree.remove(d), compact.remove(d));
+                    break;
+                default:
+                    Iterator<TemporalData> expected = tree.tailSet(d, true).iterator();
+                    Iterator<TemporalData> actual = compact.tailIterator(d, true);
+                    while (expected.hasNext()) {
+                        assertSame(expected.next(), actual.next());
+                        if (random.nextBoolean()) {
+                            expected.remove();
+                            actual.remove();
+                        }
+                    }
+                    assertFalse(actual.hasNext());
+                }
+                assertSame(tree.floor(d), compact.floor(d));
+                assertSame(tree.ceiling(d), compact.ceiling(d));
+                assertSame(tree.lower(d), compact.lower(d));
+                assertSame(tree.higher(d), compact.higher(d));
+                assertEquals(tree.contains(d), compact.contains(d));
+                assertEquals(new java.util.ArrayList<TemporalData>(tree),
+                        new java.util.ArrayList<TemporalData>(compact));
+            }
+        }
+    }
+    
+    /**
+     * Tests that views of the compact set navigate like views of a TreeSet,
+     * without moving the records to a tree.
+     */
+    public void testCompactViews() {
+        java.util.Random random = new java.util.Random(20080419);
+        for (int run = 0; run < 500; run++) {
+            CompactTimeLineSet compact = new CompactTimeLineSet();
+            java.util.TreeSet<TemporalData> tree = 
+                new java.util.TreeSet<TemporalData>(new StartDateComparator());
+            for (int i = 0; i < CompactTimeLineSet.MAX_COMPACT; i++) {
+                TemporalData d = new SimpleTemporalData(new TimePeriod(random.nextInt(16), 20));
+                assertEquals(tree.add(d), compact.add(d));
+            }
+            boolean inflated = random.nextInt(4) == 0;
+            if (inflated) {
+                compact.inflate();
+            }
+            TemporalData from = new SimpleTemporalData(new TimePeriod(random.nextInt(16), 20));
+            TemporalData to = new SimpleTemporalData(new TimePeriod(
+                    from.getTimePeriod().getStartDay() + random.nextInt(8), 20));
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            java.util.NavigableSet<TemporalData> expected;
+            java.util.NavigableSet<TemporalData> actual;
+            switch (random.nextInt(3)) {
+            case 0:
+                expected = tree.subSet(from, fromInclusive, to, toInclusive);
+                actual = compact.subSet(from, fromInclusive, to, toInclusive);
+                break;
+            case 1:
+                expected = tree.headSet(to, toInclusive);
+                actual = compact.headSet(to, toInclusive);
+                break;
+            default:
+                expected = tree.tailSet(from, fromInclusive);
+                actual = compact.tailSet(from, fromInclusive);
+            }
+            if (random.nextBoolean()) {
+                // A view of the view, within its range.
+                TemporalData[] records = expected.toArray(new TemporalData[0]);
+                if (records.length > 0) {
+                    TemporalData bound = records[random.nextInt(records.length)];
+                    boolean inclusive = random.nextBoolean();
+                    if (random.nextBoolean()) {
+                        expected = expected.tailSet(bound, inclusive);
+                        actual = actual.tailSet(bound, inclusive);
+                    } else {
+                        expected = expected.headSet(bound, inclusive);
+                        actual = actual.headSet(bound, inclusive);
+                    }
+                }
+            }
+            
+            assertEquals(new java.util.ArrayList<TemporalData>(expected),
+                    new java.util.ArrayList<TemporalData>(actual));
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            if (!expected.isEmpty()) {
+                assertSame(expected.first(), actual.first());
+                assertSame(expected.last(), actual.last());
+            }
+            for (int day = -1; day < 18; day++) {
+                TemporalData d = new SimpleTemporalData(new TimePeriod(day, 20));
+                assertSame(expected.floor(d), actual.floor(d));
+                assertSame(expected.ceiling(d), actual.ceiling(d));
+                assertSame(expected.lower(d), actual.lower(d));
+                assertSame(expected.higher(d), actual.higher(d));
+                assertEquals(expected.contains(d), actual.contains(d));
+            }
+            assertEquals(!inflated, compact.isCompact());
+            
+            // Removing through the view removes from the set.
+            Iterator<TemporalData> e = expected.iterator();
+            Iterator<TemporalData> a = actual.iterator();
+            while (e.hasNext()) {
+                assertSame(e.next(), a.next());
+                if (random.nextBoolean()) {
+                    e.remove();
+                    a.remove();
+                }
+            }
+            assertFalse(a.hasNext());
+            assertEquals(new java.util.ArrayList<TemporalData>(tree),
+                    new java.util.ArrayList<TemporalData>(compact));
+            assertEquals(new java.util.ArrayList<TemporalData>(expected.descendingSet()),
+                    new java.util.ArrayList<TemporalData>(actual.descendingSet()));
+            assertFalse(compact.isCompact());
+        }
+    }
+    
+    public void testViewsKeepIteratorsValid() {
+        TimePeriod period = new TimePeriod(10000, 10015);
+
+        // Asking for a view leaves the records in the array.
+        TimeLine line = fourRecords();
+        Iterator<TemporalData> it = line.iterator();
+        assertEquals("v0", it.next().getIdentity());
+        assertEquals(2, line.getSubset(period).size());
+        assertEquals(3, line.getEffectiveSubset(new TimePeriod(10002, 10022)).size());
+        assertTrue(compactSet(line).isCompact());
+        
+        // Moving them to a tree changes nothing.
+        compactSet(line).inflate();
+        assertEquals("v1", it.next().getIdentity());
+        it.remove();
+        assertEquals("v2", it.next().getIdentity());
+        assertEquals("v3", it.next().getIdentity());
+        assertFalse(it.hasNext());
+        assertEquals(3, line.size());
+
+        // Removing a record returned before the move.
+        line = fourRecords();
+        it = line.iterator();
+        assertEquals("v0", it.next().getIdentity());
+        compactSet(line).inflate();
+        it.remove();
+        assertEquals("v1", it.next().getIdentity());
+        assertEquals(3, line.size());
+
+        // The cursor stays valid across view requests.
+        line = fourRecords();
+        TimeLineCursor cursor = line.cursor();
+        assertEquals("v0", cursor.getAsOf(Utils.fromEpochDay(10001)).getIdentity());
+        compactSet(line).inflate();
+        assertEquals("v1", cursor.getAsOf(Utils.fromEpochDay(10011)).getIdentity());
+        assertEquals("v3", cursor.getAsOf(Utils.fromEpochDay(10031)).getIdentity());
+
+        // Real changes are still detected.
+        line = fourRecords();
+        it = line.iterator();
+        it.next();
+        compactSet(line).inflate();
+        line.add(new SimpleTemporalData(new TimePeriod(10050, 10054), "v5"));
+        try {
+            it.next();
+            fail("Expected ConcurrentModificationException");
+        } catch (java.util.ConcurrentModificationException e) {
+            // expected
+        }
+        
+        // Removing through one iterator after the move is a change to others,
+        // whether the record was returned before the move or after it.
+        for (int returnedBefore = 0; returnedBefore < 2; returnedBefore++) {
+            CompactTimeLineSet set = compactSet(fourRecords());
+            Iterator<TemporalData> first = set.iterator();
+            Iterator<TemporalData> second = set.iterator();
+            assertEquals("v0", second.next().getIdentity());
+            if (returnedBefore == 1) {
+                first.next();
+            }
+            set.inflate();
+            if (returnedBefore == 0) {
+                first.next();
+            }
+            first.remove();
+            assertEquals("v1", first.next().getIdentity());
+            try {
+                second.next();
+                fail("Expected ConcurrentModificationException");
+            } catch (java.util.ConcurrentModificationException e) {
+                // expected
+            }
+            assertEquals(3, set.size());
+        }
+    }
+
+    private static CompactTimeLineSet compactSet(TimeLine line) {
+        return (CompactTimeLineSet) ((AbstractTimeLine) line).set;
+    }
+
+    private static TimeLine fourRecords() {
+        TimeLine line = new PeriodOfExistenceTimeLine();
+        for (int i = 0; i < 4; i++) {
+            line.add(new SimpleTemporalData(new TimePeriod(10000 + i * 10, 10004 + i * 10), "v" + i));
+        }
+        return line;
+    }
+
     @SuppressWarnings("unchecked")
     public void testGaps() throws Exception {
         assertTrue(line.add(d2)); // 1997/1/21 - 1997/2/4
@@ -644,4 +1365,56 @@ public class PeriodOfExistenceTest extends TimeLineTestCase {
     protected TimeLineFactory getTimeLineFactory() {
         return new PeriodOfExistenceTimeLineFactory();
     }
+
+    /**
+     * Plain bean, loaded by a throwaway class loader in
+     * <tt>testPropertyAccessorUnloading</tt>.
+     */
+    public static class Bean {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Fingerprinted record that counts calls to equalsIgnorePeriod.
+     */
+    @SuppressWarnings("serial")
+    static class CountingData extends NormalizedTemporalData 
+    implements FingerprintedTemporalData {
+        private final String value;
+        private final int[] comparisons;
+        
+        CountingData(TimePeriod period, String value, int[] comparisons) {
+            setTimePeriod(period);
+            this.value = value;
+            this.comparisons = comparisons;
+        }
+        
+        public long getValueFingerprint() {
+            return Utils.fingerprint(value);
+        }
+
+        public boolean equalsIgnorePeriod(TemporalData d) {
+            comparisons[0]++;
+            return d instanceof CountingData && value.equals(((CountingData) d).value);
+        }
+
+        public Object cloneData() {
+            return clone();
+        }
+
+        public Object getIdentity() {
+            return null;
+        }
+
+        public void setIdentity(Object identity) {
+        }
+    }
 }
@@ -201,5 +201,43 @@ public class PerpetualTest extends TimeLineTestCase {
     @Override
     protected TimeLineFactory getTimeLineFactory() {
         return new PerpetualTimeLineFactory();
-    }   
+    }
+
+    /**
+     * Tests appending records to a long history. Each new record should
+     * only touch the record before it.
+     */
+    @SuppressWarnings("unchecked")
+    public void testAppend() {
+        final int[] comparisons = new int[1];
+        for (int i = 0; i < 200; i++) {
+            comparisons[0] = 0;
+            assertTrue(line.add(new SimpleTemporalData(new TimePeriod(10000 + i * 7, TimePeriod.END_OF_TIME_DAY),
+                    i % 2 == 0 ? "A" : "B") {
+                @Override
+                public boolean equalsIgnorePeriod(TemporalData d) {
+                    comparisons[0]++;
+                    return super.equalsIgnorePeriod(d);
+                }
+            }));
+            assertTrue(comparisons[0] <= 6);
+        }
+        assertEquals(200, line.size());
+        
+        TemporalData previous = null;
+        for (TemporalData d : (Iterable<TemporalData>) line) {
+            if (previous != null) {
+                assertTrue(previous.getTimePeriod().isAdjacentTo(d.getTimePeriod()));
+            }
+            previous = d;
+        }
+        assertEquals(TimePeriod.END_OF_TIME_DAY, previous.getTimePeriod().getEndDay());
+    }
+    
+    /**
+     * Tests loading a batch of records into an empty timeline.
+     */
+    public void testBulkLoad() {
+        checkBulkLoad(TimeLineFactory.PERPETUAL_TL_FACTORY);
+    }
 }
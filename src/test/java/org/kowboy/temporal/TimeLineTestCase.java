@@ -18,8 +18,11 @@
  */
 package org.kowboy.temporal;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
@@ -57,6 +60,52 @@ public abstract class TimeLineTestCase extends TestCase {
         }
     }
     
+    /**
+     * Checks that loading a batch of overlapping records into an empty 
+     * timeline gives the same result as adding them one at a time in the
+     * same order, whether or not they are in start date order.
+     */
+    @SuppressWarnings("unchecked")
+    protected static void checkBulkLoad(TimeLineFactory factory) {
+        Random random = new Random(20080321L);
+        String[] values = {"A", "B", "C"};
+        for (int round = 0; round < 200; round++) {
+            List<TemporalData> records = new ArrayList<TemporalData>();
+            int count = 2 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                int start = 10000 + random.nextInt(60);
+                int end = random.nextInt(5) == 0 ? TimePeriod.END_OF_TIME_DAY
+                        : start + random.nextInt(30);
+                records.add(new SimpleTemporalData(new TimePeriod(start, end),
+                        values[random.nextInt(values.length)]));
+            }
+            List<TemporalData> sorted = copy(records);
+            Collections.sort(sorted, new StartDateComparator());
+            checkBulkLoad(factory, "Bulk load round " + round + " failed.", records);
+            checkBulkLoad(factory, "Sorted bulk load round " + round + " failed.", sorted);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void checkBulkLoad(TimeLineFactory factory, String message,
+            List<TemporalData> records) {
+        TimeLine expected = factory.createTimeLine();
+        for (TemporalData d : copy(records)) {
+            expected.add(d);
+        }
+        TimeLine loaded = factory.createTimeLine();
+        loaded.addAll(copy(records));
+        checkTimeLine(message, new ArrayList<TemporalData>(expected), loaded);
+    }
+    
+    private static List<TemporalData> copy(List<TemporalData> records) {
+        List<TemporalData> copy = new ArrayList<TemporalData>(records.size());
+        for (TemporalData d : records) {
+            copy.add((TemporalData) d.cloneData());
+        }
+        return copy;
+    }
+    
     /**
      * This test reads test data from an input file, runs the test with
      * that data, and checks the results against expected output as defined
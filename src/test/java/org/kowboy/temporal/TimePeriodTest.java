@@ -210,4 +210,26 @@ public class TimePeriodTest extends TestCase {
     			Utils.newDate(2005, 1, 13));
         assertEquals(tp2, tp1);
     }
+    
+    /**
+     * Time periods have a granularity of one day.
+     */
+    public void testDayGranularity() {
+        TimePeriod tp = new TimePeriod(Utils.newDate(2008, 3, 1), Utils.newDate(2008, 3, 31));
+        assertTrue(tp.contains(Utils.newDate(2008, 3, 31, 23, 59, 59)));
+        assertFalse(tp.contains(Utils.newDate(2008, 4, 1, 0, 0, 0)));
+        
+        TimePeriod sameDay = new TimePeriod(Utils.newDate(2008, 3, 1, 14, 30, 0),
+                Utils.newDate(2008, 3, 31, 8, 0, 0));
+        assertEquals(tp, sameDay);
+        assertEquals(Utils.newDate(2008, 3, 1), sameDay.getStartDate());
+        
+        // spans a daylight saving time change in most time zones.
+        TimePeriod next = new TimePeriod(Utils.newDate(2008, 4, 1), Utils.newDate(2008, 11, 30));
+        assertTrue(tp.isAdjacentTo(next));
+        assertEquals(tp.getEndDay() + 1, next.getStartDay());
+        
+        assertEquals(TimePeriod.END_OF_TIME_DAY, new TimePeriod().getEndDay());
+        assertEquals(TimePeriod.END_OF_TIME, new TimePeriod().getEndDate());
+    }
 }
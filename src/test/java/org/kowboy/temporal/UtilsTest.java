@@ -19,10 +19,28 @@
 package org.kowboy.temporal;
 
 import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
 
 import junit.framework.TestCase;
 
 public class UtilsTest extends TestCase {
+    private TimeZone defaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        defaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(defaultZone);
+        Utils.resetTimeZone();
+        super.tearDown();
+    }
 
     public void testForLeapYear() {
         assertFalse(Utils.isLeapYear(1800));
@@ -197,4 +215,88 @@ public class UtilsTest extends TestCase {
         assertEquals(now.get(Calendar.MONTH), c.get(Calendar.MONTH));
         assertEquals(now.get(Calendar.DAY_OF_MONTH), c.get(Calendar.DAY_OF_MONTH));
     }
+
+    /**
+     * Tests the epoch day conversions and the calendar fields derived
+     * from them.
+     */
+    public void testEpochDays() {
+        assertEquals(0, Utils.toEpochDay(Utils.newDate(1970, 1, 1)));
+        assertEquals(-1, Utils.toEpochDay(Utils.newDate(1969, 12, 31, 23, 59, 59)));
+        assertEquals(Utils.newDate(2008, 2, 29), Utils.fromEpochDay(
+                Utils.toEpochDay(Utils.newDate(2008, 2, 29, 13, 45, 0))));
+        
+        // month and day overflow, like a lenient Calendar.
+        assertEquals(Utils.newDate(2009, 1, 31), Utils.newDate(2008, 13, 31));
+        assertEquals(Utils.newDate(2008, 2, 29), Utils.newDate(2008, 3, 0));
+        
+        java.util.Date d = Utils.newDate(2008, 2, 29);
+        assertEquals(2008, Utils.getYear(d));
+        assertEquals(Calendar.FEBRUARY, Utils.getMonth(d));
+        
+        // a year that spans daylight saving time changes in most zones.
+        assertEquals(366, Utils.daysBetween(Utils.newDate(2008, 1, 1), Utils.newDate(2009, 1, 1)));
+        assertEquals(-366, Utils.daysBetween(Utils.newDate(2009, 1, 1), Utils.newDate(2008, 1, 1)));
+        
+        // before the Gregorian cutover.
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(1500, Calendar.FEBRUARY, 29);
+        assertEquals(c.getTime(), Utils.newDate(1500, 2, 29));
+        assertEquals(29, Utils.getNoOfDaysInMonth(c.getTime()));
+    }
+
+    /**
+     * Checks the epoch day arithmetic against <tt>GregorianCalendar</tt> on
+     * random dates from before the Gregorian cutover to well after it, in
+     * zones with daylight saving time changes at various times of day.
+     */
+    public void testEpochDaysMatchCalendar() {
+        String[] zones = {"UTC", "America/New_York", "Europe/London", "Europe/Moscow",
+                "America/Sao_Paulo", "Australia/Lord_Howe", "Asia/Kolkata", "America/St_Johns"};
+        Random random = new Random(20080501L);
+        for (String id : zones) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            TimeZone.setDefault(zone);
+            Utils.resetTimeZone();
+            for (int i = 0; i < 2000; i++) {
+                int year = 1400 + random.nextInt(700);
+                int month = 1 + random.nextInt(12);
+                int day = 1 + random.nextInt(31);
+                int hour = random.nextInt(24);
+                int minute = random.nextInt(60);
+                String message = id + " " + year + "-" + month + "-" + day + " " + hour + ":" + minute;
+                
+                GregorianCalendar c = new GregorianCalendar(zone);
+                c.clear();
+                c.set(year, month - 1, day, hour, minute, 0);
+                Date date = c.getTime();
+                assertEquals(message, date, Utils.newDate(year, month, day, hour, minute, 0));
+                
+                // Midnight of the same day, as Calendar works it out.
+                c.setTime(date);
+                GregorianCalendar midnight = new GregorianCalendar(zone);
+                midnight.clear();
+                midnight.set(c.get(Calendar.YEAR), c.get(Calendar.MONTH), 
+                        c.get(Calendar.DAY_OF_MONTH));
+                midnight.set(Calendar.ERA, c.get(Calendar.ERA));
+                int epochDay = Utils.toEpochDay(date);
+                assertEquals(message, midnight.getTime(), Utils.fromEpochDay(epochDay));
+                assertEquals(message, epochDay, Utils.toEpochDay(midnight.getTime()));
+                assertEquals(message, epochDay, Utils.toEpochDay(Utils.fromEpochDay(epochDay)));
+                
+                assertEquals(message, c.get(Calendar.YEAR), Utils.getYear(date));
+                assertEquals(message, c.get(Calendar.MONTH), Utils.getMonth(date));
+                assertEquals(message, c.getActualMaximum(Calendar.DAY_OF_MONTH), 
+                        Utils.getNoOfDaysInMonth(date));
+                
+                int days = random.nextInt(800) - 400;
+                GregorianCalendar later = (GregorianCalendar) c.clone();
+                later.add(Calendar.DAY_OF_MONTH, days);
+                assertEquals(message + " + " + days, later.getTime(), Utils.addDays(date, days));
+                assertEquals(message + " + " + days, days, 
+                        Utils.daysBetween(date, Utils.addDays(date, days)));
+            }
+        }
+    }
 }
@@ -18,6 +18,7 @@
  */
 package org.kowboy.temporal.domain;
 
+import org.kowboy.temporal.FingerprintedTemporalData;
 import org.kowboy.temporal.NormalizedTemporalData;
 import org.kowboy.temporal.TemporalData;
 import org.kowboy.temporal.Utils;
@@ -25,12 +26,13 @@ import org.kowboy.temporal.Utils;
 /**
  * This is a sample object for testing.
  */
-public class PhoneNumber extends NormalizedTemporalData {
+public class PhoneNumber extends NormalizedTemporalData implements FingerprintedTemporalData {
 	private static final long serialVersionUID = 5751115458896868623L;
 
 	private Integer id;
 	private String numberString;
 	private Integer areaCode;
+	private transient Long fingerprint;
 	
 	public Object cloneData() {
 		PhoneNumber pn = new PhoneNumber();
@@ -56,8 +58,16 @@ public class PhoneNumber extends NormalizedTemporalData {
 		this.id = (Integer) identity;
 	}
 
+	public long getValueFingerprint() {
+		if (fingerprint == null) {
+			fingerprint = Utils.fingerprint(numberString, areaCode);
+		}
+		return fingerprint;
+	}
+
 	public void setNumberString(String numberString) {
 		this.numberString = numberString;
+		this.fingerprint = null;
 	}
 
 	public String getNumberString() {
@@ -74,6 +84,7 @@ public class PhoneNumber extends NormalizedTemporalData {
 
 	public void setAreaCode(Integer areaCode) {
 		this.areaCode = areaCode;
+		this.fingerprint = null;
 	}
 
 	public Integer getAreaCode() {
@@ -2,6 +2,7 @@ package org.kowboy.temporal.domain;
 
 import java.text.ParseException;
 
+import org.hibernate.Hibernate;
 import org.kowboy.temporal.TimePeriod;
 import org.kowboy.temporal.Utils;
 
@@ -40,4 +41,31 @@ public class TemporalDataInsertTest extends PersistenceTest {
 		PhoneNumber ph2 = (PhoneNumber) p2.getPhoneHistory().getAsOf(Utils.newDate(2008, 2, 1));
 		assertEquals("444-5555", ph2.getNumberString());		
 	}
+
+	public void testExtraLazyGetAsOf() throws ParseException {
+		PhoneNumber ph = new PhoneNumber();
+		ph.setAreaCode(502);
+		ph.setNumberString("444-5555");
+		ph.setTimePeriod(new TimePeriod("2008-01-01", "2008-05-10"));
+		p.addPhoneHistory(ph);
+		ph = new PhoneNumber();
+		ph.setAreaCode(812);
+		ph.setNumberString("333-4444");
+		ph.setTimePeriod(new TimePeriod("2008-05-11", "2008-12-31"));
+		p.addPhoneHistory(ph);
+		session.update(p);
+		commit();
+
+		// The same person, mapped with an extra lazy phone history.
+		Person p2 = (Person) session.get("ExtraLazyPerson", p.getId());
+		PhoneNumber ph2 = (PhoneNumber) p2.getPhoneHistory().getAsOf(Utils.newDate(2008, 5, 10, 15, 0, 0));
+		assertEquals("444-5555", ph2.getNumberString());
+		assertEquals(812, p2.getAreaCode(Utils.newDate(2008, 6, 1)).intValue());
+		assertNull(p2.getPhoneHistory().getAsOf(Utils.newDate(2009, 1, 1)));
+		assertEquals(Utils.newDate(2008, 5, 11), p2.getPhoneHistory().getLatestEffectiveDate());
+		assertFalse(Hibernate.isInitialized(p2.getPhoneHistory()));
+
+		assertEquals(2, p2.getPhoneHistory().toArray().length);
+		assertTrue(Hibernate.isInitialized(p2.getPhoneHistory()));
+	}
 }